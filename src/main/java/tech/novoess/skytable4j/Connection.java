@@ -1,12 +1,52 @@
 package tech.novoess.skytable4j;
 
-import java.net.Socket;
+import tech.novoess.skytable4j.parsing.IElementVisitor;
+import tech.novoess.skytable4j.parsing.ParseError;
+import tech.novoess.skytable4j.parsing.Parser;
+import tech.novoess.skytable4j.querying.*;
+
+import tech.novoess.skytable4j.transport.EventLoop;
+import tech.novoess.skytable4j.transport.ITransportListener;
+import tech.novoess.skytable4j.transport.SocketTransport;
+import tech.novoess.skytable4j.transport.TlsContext;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Stream;
-
-/// <summary>A database connection over Skyhash/TCP.</summary>
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/// <summary>
+/// A database connection over Skyhash/TCP.
+/// The connection is multiplexed: any number of threads can run queries on it at the same time. Queries are written
+/// back to back without waiting for the responses of the ones before them, and since Skytable answers in order the
+/// responses are matched to the queries through a FIFO of futures that the I/O thread completes as it parses them.
+/// The futures returned by the *Async methods are completed on that I/O thread, so callbacks attached to them must
+/// not block; in particular they must not wait for another query on a connection served by the same thread.
+/// </summary>
 public class Connection implements IConnection
 {
+    // Reused by the built-in commands. A query is copied into the transport before submitting returns, so each thread
+    // can keep reusing its own.
+    private static final ThreadLocal<Query> QUERIES = ThreadLocal.withInitial(Query::new);
+    // What USE answers, for a switch to the entity the connection is already on.
+    private static final SkyResult<Element> OKAY = SkyResult.Ok(Element.Of(ResponseCode.Of(RespCode.Okay)));
+    // The entity a new connection is on.
+    private static final String DEFAULT_ENTITY = "default:default";
+
     /// <summary>Gets the host that this connection is connected to.</summary>
     public String Host;
 
@@ -14,19 +54,76 @@ public class Connection implements IConnection
     public short Port;
 
     /// <summary>Gets the entity that this connection is connected to.</summary>
-    public String Entity = "default:default";
+    public volatile String Entity = DEFAULT_ENTITY;
 
     /// <summary>Gets the connection state.</summary>
     public boolean isConnected() {
-        return  _client.isConnected();
+        return _transport != null && _transport.IsOpen();
+    }
+
+    /// <summary>
+    /// Returns true while a query that timed out or was cancelled is still waiting for its response. The connection
+    /// keeps working, the late response is read and dropped, but a pool should rather discard the connection.
+    /// </summary>
+    public boolean NeedsResync() {
+        for (var pending : _inFlight)
+            if (pending.isDone())
+                return true;
+        return false;
+    }
+
+    /// Runs the listener once the connection has closed, whether the server or the client closed it: on the I/O thread
+    /// when the transport noticed, on the calling thread when <see cref="Connection.Close"/> closed it. It must not block.
+    void setClosedListener(Runnable listener) {
+        _closedListener = listener;
     }
 
-    private String _certPath;
-    private final short BUF_CAP = 4096;
-    private final int WSAENOTCONN = 10057;
-    private Socket _client;
-    private Stream _stream;
-    private List<Byte> _buffer;
+    /// <summary>Gets or sets how long a query waits for its response before it fails with <see cref="ParseError.Timeout"/>. Null waits forever.</summary>
+    public Duration getTimeout() {
+        return _timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        _timeout = timeout;
+    }
+
+    /// <summary>Gets or sets how long connecting, including the Tls handshake, may take. Null waits forever.</summary>
+    public Duration getConnectTimeout() {
+        return _connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        _connectTimeout = connectTimeout;
+    }
+
+    private final ConnectionConfig _config;
+    private volatile Duration _timeout;
+    private volatile Duration _connectTimeout;
+    private final EventLoop _loop;
+    private volatile SocketTransport _transport;
+    // Told on the loop thread when the transport closes, for the pool to drop the connection right away.
+    private volatile Runnable _closedListener;
+    // Only touched by the loop thread.
+    private final Parser _parser;
+    // Queries that have been written but not answered, in the order they were written.
+    private final ConcurrentLinkedQueue<PendingQuery<?>> _inFlight = new ConcurrentLinkedQueue<>();
+    // Held while a query is enqueued and written, so both happen in the same order.
+    private final ReentrantLock _writeLock = new ReentrantLock();
+    // Held while connecting, so that two calls to Connect cannot both open a transport.
+    private final ReentrantLock _connectLock = new ReentrantLock();
+    // The entity the last USE that was written asked for and its answer, guarded by the write lock. The queries written
+    // after it run on that entity unless it fails.
+    private String _useEntity = DEFAULT_ENTITY;
+    private CompletableFuture<SkyResult<Element>> _use = CompletableFuture.completedFuture(OKAY);
+    // A streaming pipeline has the stream to itself until it is run or closed, other writers wait for it.
+    private StreamingPipeline _openPipeline;
+    private final Condition _pipelineClosed = _writeLock.newCondition();
+    // Write coalescing, see EnableCoalescing. The batch is guarded by the write lock.
+    private volatile boolean _coalescing;
+    private int _maxBatchQueries;
+    private int _maxBatchBytes;
+    private long _batchWindowNanos;
+    private Batch _batch;
 
     /// <summary>
     /// Create a new connection to a Skytable instance hosted on the provided host and port with Tls disabled.
@@ -36,7 +133,7 @@ public class Connection implements IConnection
     /// <Param name="port">The port which the host is running Skytable.</Param>
     public Connection(String host, int port)
     {
-        new Connection(host, (short)port, "");
+        this(new ConnectionBuilder().setHost(host).setPort((short)port).BuildConfig());
     }
 
     /// <summary>
@@ -48,43 +145,118 @@ public class Connection implements IConnection
     /// <Param name="certPath">Path to the certificate file.</Param>
     public Connection(String host, short port, String certPath)
     {
-        Host = host;
-        Port = port;
-        _client = new TcpClient();
-        _buffer = new List<Byte>(BUF_CAP);
-        _certPath = certPath;
+        this(new ConnectionBuilder().setHost(host).setPort(port).UseTls(certPath).BuildConfig());
     }
 
     /// <summary>
-    /// Open a connection to the Host:Port specified in the constructor.
+    /// Create a new connection to a Skytable instance on the same machine, listening on the Unix domain socket at the
+    /// provided path. This skips the TCP stack entirely; Tls is not used.
+    /// Call <see cref="Connection.Connect"/> or <see cref="Connection.ConnectAsync"/> to connect after creating the connection.
+    ///</summary>
+    /// <Param name="socketPath">The path of the socket that Skytable is listening on.</Param>
+    public Connection(Path socketPath)
+    {
+        this(new ConnectionBuilder().UseUnixSocket(socketPath).BuildConfig());
+    }
+
+    /// <summary>
+    /// Create a new connection with the settings of the given configuration, which can be shared with other connections.
+    /// Call <see cref="Connection.Connect"/> or <see cref="Connection.ConnectAsync"/> to connect after creating the connection.
+    ///</summary>
+    /// <Param name="config">The configuration built with a <see cref="ConnectionBuilder"/>.</Param>
+    public Connection(ConnectionConfig config)
+    {
+        _config = config;
+        Host = config.SocketPath != null ? config.SocketPath.toString() : config.Host;
+        Port = config.SocketPath != null ? 0 : config.Port;
+        _timeout = config.Timeout;
+        _connectTimeout = config.ConnectTimeout;
+        _loop = EventLoop.Default();
+        // Direct, so that the channel reads straight into the parser's buffer.
+        _parser = new Parser(config.ReadBufferSize, true);
+        _parser.setMaxFrameSize(config.MaxFrameSize);
+    }
+
+    /// <summary>Gets the configuration this connection was created with.</summary>
+    public ConnectionConfig getConfig() {
+        return _config;
+    }
+
+    /// <summary>
+    /// Open a connection to the Host:Port, or the socket path, specified in the constructor.
     /// If a Certificate path is specified an attempt will be made to set up a secure connection.
+    /// A connection that has been closed or dropped can be connected again; one that is still open throws an
+    /// <see cref="IllegalStateException"/>.
     /// </summary>
-    public void Connect()
+    public void Connect() throws IOException
+    {
+        // A lock rather than the monitor, which would pin a virtual thread to its carrier for the whole handshake.
+        _connectLock.lock();
+        try
+        {
+            ConnectLocked();
+        }
+        finally
+        {
+            _connectLock.unlock();
+        }
+    }
+
+    private void ConnectLocked() throws IOException
     {
-        _client.Connect(Host, Port);
-        _stream = _client.GetStream();
+        if (isConnected())
+            throw new IllegalStateException("The connection is already connected.");
+
+        // A new session starts on the default entity, whatever the last one was switched to.
+        _writeLock.lock();
+        try
+        {
+            Entity = DEFAULT_ENTITY;
+            _useEntity = DEFAULT_ENTITY;
+            _use = CompletableFuture.completedFuture(OKAY);
+        }
+        finally
+        {
+            _writeLock.unlock();
+        }
 
-        if (!String.IsNullOrEmpty(_certPath))
-            AuthenticateSsl();
+        var options = _config.SocketOptions();
+        if (_config.SocketPath != null)
+        {
+            _transport = SocketTransport.Connect(UnixDomainSocketAddress.of(_config.SocketPath), null, _connectTimeout, options, _loop, new Receiver());
+            return;
+        }
+
+        var address = new InetSocketAddress(Host, Short.toUnsignedInt(Port));
+        var tls = _config.UsesTls() ? TlsContext.FromCertificate(_config.CertPath) : null;
+        _transport = SocketTransport.Connect(address, tls, _connectTimeout, options, _loop, new Receiver());
     }
 
     /// <summary>
     /// Open a connection asynchronously to the Host:Port specified in the constructor.
     /// If a Certificate path is specified an attempt will be made to set up a secure connection.
     /// </summary>
-    public void ConnectAsync()
+    public CompletableFuture<Void> ConnectAsync()
     {
-        _client.ConnectAsync(Host, Port);
-        _stream = _client.GetStream();
-
-        if (!String.IsNullOrEmpty(_certPath))
-            await AuthenticateSslAsync();
+        return CompletableFuture.runAsync(() ->
+        {
+            try
+            {
+                Connect();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
-    /// <summary>Close the connection.</summary>
+    /// <summary>Close the connection. Queries that have not been answered yet fail.</summary>
     public void Close()
     {
-        _client.Close();
+        var transport = _transport;
+        if (transport != null)
+            transport.Close();
     }
 
     /// <summary>Dispose of the connection. This will close the connection.</summary>
@@ -93,215 +265,366 @@ public class Connection implements IConnection
         Close();
     }
 
-    private void AuthenticateSsl()
+    /// <summary>
+    /// This function will write a <see cref="Query"/> to the stream and read the response from the
+    /// server. It will then determine if the returned response is complete, incomplete
+    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    public SkyResult<Element> RunSimpleQuery(Query query) throws Exception {
+        return Await(RunSimpleQueryAsync(query));
+    }
+
+    /// <summary>
+    /// Runs the query like <see cref="Connection.RunSimpleQuery"/>, returning <see cref="ParseError.Timeout"/> if the
+    /// server has not answered within the given time instead of the connection's default timeout.
+    /// </summary>
+    public SkyResult<Element> RunSimpleQuery(Query query, Duration timeout) throws Exception {
+        return Await(RunSimpleQueryAsync(query, timeout));
+    }
+
+    /// <summary>
+    /// This function will write a <see cref="Query"/> to the stream and hand the elements of the response to the
+    /// visitor as they are read from the server, without building them in memory first. Returns the number of
+    /// datagroups once the response is complete, or the error that stopped it. The visitor is called on the I/O thread,
+    /// and keeps being called for the rest of the response if the query times out.
+    /// </summary>
+    public SkyResult<Integer> RunSimpleQuery(Query query, IElementVisitor visitor) throws Exception {
+        if (query.getArgumentCount() == 0)
+            throw new Exception("A query cannot be empty!");
+
+        return Await(Submit(query, () -> _parser.Parse(visitor), _timeout));
+    }
+
+    /// <summary>
+    /// This function will write a <see cref="Query"/> to the stream without waiting for the responses of earlier
+    /// queries and return a future that is completed with the <see cref="Element"/> the server answers with.
+    /// The query can be reused as soon as this returns.
+    /// </summary>
+    public CompletableFuture<SkyResult<Element>> RunSimpleQueryAsync(Query query)
+    {
+        return RunSimpleQueryAsync(query, _timeout);
+    }
+
+    /// <summary>
+    /// Writes the query like <see cref="Connection.RunSimpleQueryAsync"/>. The future is completed with
+    /// <see cref="ParseError.Timeout"/> if the server has not answered within the given time, or never if it is null.
+    /// Cancelling the future abandons the query in the same way.
+    /// </summary>
+    public CompletableFuture<SkyResult<Element>> RunSimpleQueryAsync(Query query, Duration timeout)
+    {
+        if (query.getArgumentCount() == 0)
+            return CompletableFuture.failedFuture(new Exception("A query cannot be empty!"));
+
+        if (_coalescing)
+            return Coalesce(query, timeout);
+
+        return Submit(query, _parser::Parse, timeout);
+    }
+
+    /// <summary>
+    /// Turns on write coalescing: queries run through <see cref="Connection.RunSimpleQueryAsync"/>, and so the built-in
+    /// commands, are not written right away but gathered into a single pipeline that is written once `window` has passed
+    /// since the first of them, or as soon as it holds `maxQueries` queries or `maxBytes` bytes. The responses are handed
+    /// back to the callers one by one. This trades up to `window` of latency for far fewer writes and packets when many
+    /// threads issue small queries. Queries written any other way flush the gathered ones first, so the server always
+    /// sees the queries of a thread in the order they were made.
+    /// </summary>
+    public void EnableCoalescing(int maxQueries, int maxBytes, Duration window)
     {
-        var sslStream = new SslStream(
-            _client.GetStream(),
-            false,
-            new RemoteCertificateValidationCallback(ValidateServerCertificate),
-            new LocalCertificateSelectionCallback(SelectCertificate)
-            );
+        if (maxQueries < 1 || maxBytes < 1 || window.isNegative())
+            throw new IllegalArgumentException("The coalescing limits must be positive.");
 
+        _writeLock.lock();
         try
         {
-            sslStream.AuthenticateAsClient(Host);
-            _stream = sslStream;
+            _maxBatchQueries = maxQueries;
+            _maxBatchBytes = maxBytes;
+            _batchWindowNanos = window.toNanos();
+            _coalescing = true;
         }
-        catch (Exception ex)
+        finally
         {
-            _client.Close();
-            throw ex;
+            _writeLock.unlock();
         }
     }
 
-    private void AuthenticateSslAsync()
+    /// <summary>Turns write coalescing off, writing the queries that have been gathered so far.</summary>
+    public void DisableCoalescing()
     {
-        var sslStream = new SslStream(
-            _client.GetStream(),
-            false,
-            new RemoteCertificateValidationCallback(ValidateServerCertificate),
-            new LocalCertificateSelectionCallback(SelectCertificate)
-            );
-
+        _writeLock.lock();
         try
         {
-            sslStream.AuthenticateAsClientAsync(Host);
-            _stream = sslStream;
+            AwaitStream();
+            _coalescing = false;
+            WriteBatch();
         }
-        catch (Exception ex)
+        finally
         {
-            _client.Close();
-            throw ex;
+            _writeLock.unlock();
         }
     }
 
-    private X509Certificate SelectCertificate(
-        object sender,
-        String targetHost,
-        X509CertificateCollection localCertificates,
-        X509Certificate remoteCertificate,
-        String[] acceptableIssuers)
-    {
-        var cert = new X509Certificate(_certPath);
-        return cert;
-    }
-
-    private static boolean ValidateServerCertificate(
-          object sender,
-          X509Certificate certificate,
-          X509Chain chain,
-          SslPolicyErrors sslPolicyErrors)
+    /// <summary>
+    /// Creates a <see cref="Pipeline"/> of exactly `count` queries that is sent to the server while it is being built,
+    /// one chunk at a time. Pass it to <see cref="Connection.RunPipeline"/> once all queries have been added to send the
+    /// rest and read the responses. Other writes to the connection wait until the pipeline has been run or closed, so
+    /// open it in a try-with-resources block: closing a pipeline that has not been run gives the connection back, and
+    /// closes the connection as well if part of the pipeline has already been sent.
+    /// </summary>
+    public Pipeline OpenPipeline(int count) throws NotConnectedException
     {
-        if (sslPolicyErrors == SslPolicyErrors.None)
-            return true;
+        if (!isConnected())
+            throw new NotConnectedException();
 
-        // Allow self-signed certificates for now.
-        if (chain.ChainStatus.Length == 1)
+        _writeLock.lock();
+        try
         {
-            if (sslPolicyErrors == SslPolicyErrors.RemoteCertificateChainErrors || certificate.Subject == certificate.Issuer)
-            {
-                if (chain.ChainStatus[0].Status == X509ChainStatusFlags.UntrustedRoot)
-                    return true;
-            }
+            AwaitStream();
+            WriteBatch();
+            // The chunks are sent while the caller is still adding queries, each of them may block for the timeout.
+            _transport.setSendTimeout(_timeout);
+            _openPipeline = new StreamingPipeline(count, _transport);
+            return _openPipeline;
+        }
+        finally
+        {
+            _writeLock.unlock();
         }
-
-        // Do not allow this client to communicate with unauthenticated servers.
-        return false;
     }
 
     /// <summary>
-    /// This function will write a <see cref="Query"/> to the stream and read the response from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will write a <see cref="Pipeline"/> to the stream and read the response from the
+    /// server. It returns one result per query in the pipeline, in the order they were added. Each result holds
+    /// the <see cref="Element"/> the server answered that query with, including response codes. If the response
+    /// as a whole could not be read every result carries the error.
     /// </summary>
-    public SkyResult<Element> RunSimpleQuery(Query query) throws Exception {
-        if (query.ArgumentCount == 0)
-            throw new Exception("A query cannot be empty!");
-
-        return RunQuery(query);
+    public List<SkyResult<Element>> RunPipeline(Pipeline pipeline) throws Exception
+    {
+        return Await(RunPipelineAsync(pipeline));
     }
 
     /// <summary>
-    /// This function will write a <see cref="Query"/> asynchronously to the stream and read the response from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will write a <see cref="Pipeline"/> to the stream and hand the elements of the responses to the
+    /// visitor as they are read from the server, one top-level element per query in the order they were added.
+    /// Returns the number of datagroups once the response is complete, or the error that stopped it.
+    /// The visitor is called on the I/O thread.
     /// </summary>
-    public async Task<SkyResult<Element>> RunSimpleQueryAsync(Query query)
+    public SkyResult<Integer> RunPipeline(Pipeline pipeline, IElementVisitor visitor) throws Exception
     {
-        if (query.ArgumentCount == 0)
-            throw new Exception("A query cannot be empty!");
+        if (pipeline.getCount() == 0)
+            throw new Exception("A Pipeline cannot be empty!");
 
-        return await RunQueryAsync(query);
+        return Await(Submit(pipeline, () -> _parser.Parse(visitor), _timeout));
     }
 
     /// <summary>
-    /// This function will write a <see cref="Pipeline"/> to the stream and read the response from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will write a <see cref="Pipeline"/> to the stream without waiting for the responses of earlier
+    /// queries and return a future that is completed with one result per query in the pipeline, as
+    /// <see cref="Connection.RunPipeline"/> returns them.
     /// </summary>
-    public SkyResult<Element> RunPipeline(Pipeline pipeline)
+    public CompletableFuture<List<SkyResult<Element>>> RunPipelineAsync(Pipeline pipeline)
     {
-        if (pipeline.Count == 0)
-            throw new Exception("A Pipeline cannot be empty!");
+        if (pipeline.getCount() == 0)
+            return CompletableFuture.failedFuture(new Exception("A Pipeline cannot be empty!"));
+
+        var count = pipeline.getCount();
+        return Submit(pipeline, _parser::ParsePipeline, _timeout).thenApply(response ->
+        {
+            var results = new ArrayList<SkyResult<Element>>(count);
 
-        return RunQuery(pipeline);
+            // The server answers every query of the pipeline, anything else means we lost track of the stream.
+            var error = response.IsError ? response.Error
+                    : response.Item.size() != count ? ParseError.BadPacket
+                    : null;
+
+            for (int i = 0; i < count; i++)
+                results.add(error == null ? SkyResult.Ok(response.Item.get(i)) : SkyResult.Err(error));
+
+            return results;
+        });
     }
 
-    /// <summary>
-    /// This function will write a <see cref="Pipeline"/> asynchronously to the stream and read the response from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
-    /// </summary>
-    public async Task<SkyResult<Element>> RunPipelineAsync(Pipeline pipeline)
+    private <U> CompletableFuture<SkyResult<U>> Submit(IQueryWriter queryWriter, Supplier<SkyResult<U>> parse, Duration timeout)
     {
-        if (pipeline.Count == 0)
-            throw new Exception("A Pipeline cannot be empty!");
+        _writeLock.lock();
+        try
+        {
+            if (queryWriter instanceof StreamingPipeline && queryWriter != _openPipeline)
+                return CompletableFuture.failedFuture(new IllegalStateException("The pipeline has already been run or closed."));
+            if (queryWriter != _openPipeline)
+                AwaitStream();
 
-        return await RunQueryAsync(pipeline);
+            WriteBatch();
+            return Write(queryWriter, parse, timeout);
+        }
+        finally
+        {
+            if (queryWriter == _openPipeline)
+                ReleaseStream();
+            _writeLock.unlock();
+        }
     }
 
-    private SkyResult<Element> RunQuery(IQueryWriter queryWriter)
+    /// Waits until no streaming pipeline is open. Called with the write lock held.
+    private void AwaitStream()
     {
-        if (!IsConnected)
-            throw new NotConnectedException();
+        while (_openPipeline != null)
+            _pipelineClosed.awaitUninterruptibly();
+    }
 
-        queryWriter.WriteTo(_stream);
+    /// Gives the stream back to the other writers. Called with the write lock held.
+    private void ReleaseStream()
+    {
+        _openPipeline = null;
+        _pipelineClosed.signalAll();
+    }
 
-        while (true)
+    /// Enqueues and writes the query. Called with the write lock held.
+    private <U> PendingQuery<U> Write(IQueryWriter queryWriter, Supplier<SkyResult<U>> parse, Duration timeout)
+    {
+        var pending = new PendingQuery<>(parse);
+        // A query that gives up stays in flight, so that its response is still matched to it and dropped.
+        if (timeout != null)
+            pending.completeOnTimeout(SkyResult.Err(ParseError.Timeout), timeout.toNanos(), TimeUnit.NANOSECONDS);
+        var transport = _transport;
+        if (transport == null || !transport.IsOpen())
         {
-            var buffer = new byte[1024];
-            var read = _stream.Read(buffer, 0, 1024);
-            if (read == 0)
-                throw new Exception("ConnectionReset");
+            pending.completeExceptionally(new NotConnectedException());
+            return pending;
+        }
 
-            _buffer.AddRange(buffer[..read]);
+        try
+        {
+            // Enqueued before it is written, the response can arrive before the write returns.
+            _inFlight.add(pending);
+            // Closing sets the flag before it fails what is in flight, so either we see it here or it fails the query.
+            if (!transport.IsOpen())
+                throw new ClosedChannelException();
+
+            // Writers take turns under the write lock, so the timeout applies to this query's writes alone.
+            transport.setSendTimeout(timeout);
+            queryWriter.WriteTo(transport.getOutputStream());
+        }
+        catch (Exception e)
+        {
+            _inFlight.remove(pending);
+            pending.completeExceptionally(e);
+            // Part of the query may be on the wire, the responses that follow could no longer be matched.
+            transport.Close();
+        }
 
-            var result = ParseResponse();
-            if (result.IsOk)
-                return result;
+        return pending;
+    }
 
-            switch (result.Error)
+    private CompletableFuture<SkyResult<Element>> Coalesce(Query query, Duration timeout)
+    {
+        var member = new CompletableFuture<SkyResult<Element>>();
+        if (timeout != null)
+            member.completeOnTimeout(SkyResult.Err(ParseError.Timeout), timeout.toNanos(), TimeUnit.NANOSECONDS);
+        _writeLock.lock();
+        try
+        {
+            AwaitStream();
+            if (_batch == null)
             {
-                case ParseError.NotEnough:
-                    continue; // We need to read again to get the complete response.
-                case ParseError.UnexpectedByte:
-                case ParseError.BadPacket:
-                    _buffer.Clear();
-                    return result;
-                case ParseError.DataTypeParseError:
-                case ParseError.UnknownDataType:
-                case ParseError.Empty:
-                    return result;
+                var batch = new Batch();
+                _batch = batch;
+                CompletableFuture.delayedExecutor(_batchWindowNanos, TimeUnit.NANOSECONDS).execute(() -> WriteBatch(batch));
             }
+
+            _batch.Pipeline.Push(query);
+            _batch.Members.add(member);
+            if (timeout != null)
+                _batch.Deadline = Math.min(_batch.Deadline, System.nanoTime() + timeout.toNanos());
+            if (_batch.Members.size() >= _maxBatchQueries || _batch.Pipeline.getLength() >= _maxBatchBytes)
+                WriteBatch();
+        }
+        finally
+        {
+            _writeLock.unlock();
         }
+
+        return member;
     }
 
-    private async Task<SkyResult<Element>> RunQueryAsync(IQueryWriter queryWriter)
+    /// Writes the batch if it has not been written yet, once its window has passed.
+    private void WriteBatch(Batch batch)
     {
-        if (!IsConnected)
-            throw new NotConnectedException();
-
-        await queryWriter.WriteToAsync(_stream);
-
-        while (true)
+        _writeLock.lock();
+        try
         {
-            var buffer = new byte[1024];
-            var read = await _stream.ReadAsync(buffer, 0, 1024);
-            if (read == 0)
-                throw new Exception("ConnectionReset");
-
-            _buffer.AddRange(buffer[..read]);
+            AwaitStream();
+            if (_batch == batch)
+                WriteBatch();
+        }
+        finally
+        {
+            _writeLock.unlock();
+        }
+    }
 
-            var result = ParseResponse();
-            if (result.IsOk)
-                return result;
+    /// Writes the gathered queries as one pipeline and hands each caller its response. Called with the write lock held.
+    private void WriteBatch()
+    {
+        var batch = _batch;
+        if (batch == null)
+            return;
 
-            switch (result.Error)
+        _batch = null;
+        var count = batch.Members.size();
+        // The batch gives up with its most impatient member, which leaves it in flight for NeedsResync to see.
+        var timeout = batch.Deadline == Long.MAX_VALUE ? null : Duration.ofNanos(Math.max(0, batch.Deadline - System.nanoTime()));
+        Write(batch.Pipeline, _parser::ParsePipeline, timeout).whenComplete((response, exception) ->
+        {
+            for (int i = 0; i < count; i++)
             {
-                case ParseError.NotEnough:
-                    continue; // We need to read again to get the complete response.
-                case ParseError.UnexpectedByte:
-                case ParseError.BadPacket:
-                    _buffer.Clear();
-                    return result;
-                case ParseError.DataTypeParseError:
-                case ParseError.UnknownDataType:
-                case ParseError.Empty:
-                    return result;
+                var member = batch.Members.get(i);
+                if (exception != null)
+                    member.completeExceptionally(exception);
+                else if (response.IsError)
+                    member.complete(SkyResult.Err(response.Error));
+                else if (response.Item.size() != count)
+                    member.complete(SkyResult.Err(ParseError.BadPacket));
+                else
+                    member.complete(SkyResult.Ok(response.Item.get(i)));
             }
+        });
+        // The pipeline has been copied into the transport, its chunks can go back to the pool.
+        batch.Pipeline.Reset();
+    }
+
+    private <U> U Await(CompletableFuture<U> future) throws Exception
+    {
+        if (_loop.InLoop())
+            throw new IllegalStateException("Waiting for a response on the I/O thread would block it forever.");
+
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
         }
     }
 
-    private SkyResult<Element> ParseResponse()
+    /// <summary>
+    /// This function will create a HEYA <see cref="Query"/> and write it to the stream and read the response from the
+    /// server, which answers "HEY!". It is the cheapest query there is, for checking that the connection still works.
+    /// </summary>
+    public SkyResult<Element> Heya() throws Exception
     {
-        // The connection was possibly reset
-        if (_buffer.Count == 0)
-            return SkyResult<Element>.Err(ParseError.Empty);
+        return Await(HeyaAsync(_timeout));
+    }
 
-        var parser = new Parser(_buffer);
-        var (result, forward_by) = parser.Parse();
-        _buffer.RemoveRange(0, forward_by);
-        return result;
+    /// <summary>
+    /// This function will create a HEYA <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, or with <see cref="ParseError.Timeout"/>
+    /// if it has not answered within the given time. Null waits forever.
+    /// </summary>
+    public CompletableFuture<SkyResult<Element>> HeyaAsync(Duration timeout)
+    {
+        return RunSimpleQueryAsync(PreparedQuery.HEYA.Start(QUERIES.get()), timeout);
     }
 
     /// <summary>
@@ -309,25 +632,20 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<T> Get(String key)
+    public SkyResult<Element> Get(String key) throws Exception
     {
-        var query = new Query();
-        query.Push("get");
-        query.Push(key);
-        return RunSimpleQuery(query);
+        return Await(GetAsync(key));
     }
 
     /// <summary>
-    /// This function will create a GET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a GET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public Task<SkyResult<T>> GetAsync(String key)
+    public CompletableFuture<SkyResult<Element>> GetAsync(String key)
     {
-        var query = new Query();
-        query.Push("get");
+        var query = PreparedQuery.GET.Start(QUERIES.get());
         query.Push(key);
-        return await RunSimpleQueryAsync(query);
+        return RunSimpleQueryAsync(query);
     }
 
     /// <summary>
@@ -335,31 +653,18 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and try to return type T if successful.
     /// </summary>
-    public SkyResult<T> Get<T>(String key) where T: Skyhash, new()
+    public <T extends Skyhash> SkyResult<T> Get(String key, Supplier<T> factory) throws Exception
     {
-        var query = new Query();
-        query.Push("get");
-        query.Push(key);
-        var result = RunSimpleQuery(query);
-        if (result.IsOk)
-            return SkyResult<T>.Ok(new T().From<T>(result.Item));
-        return SkyResult<T>.Err(result.Error);
+        return Await(GetAsync(key, factory));
     }
 
     /// <summary>
-    /// This function will create a GET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and try to return type T if successful.
+    /// This function will create a GET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with the response turned into type T if it could be read.
     /// </summary>
-    public async Task<SkyResult<T>> GetAsync<T>(String key) where T: Skyhash, new()
+    public <T extends Skyhash> CompletableFuture<SkyResult<T>> GetAsync(String key, Supplier<T> factory)
     {
-        var query = new Query();
-        query.Push("get");
-        query.Push(key);
-        var response = await RunSimpleQueryAsync(query);
-        if (response.IsOk)
-            return SkyResult<T>.Ok(new T().From<T>(response.Item));
-        return SkyResult<T>.Err(response.Error);
+        return GetAsync(key).thenApply(result -> Into(result, factory));
     }
 
     /// <summary>
@@ -367,27 +672,21 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> Set(String key, String value)
+    public SkyResult<Element> Set(String key, String value) throws Exception
     {
-        var query = new Query();
-        query.Push("set");
-        query.Push(key);
-        query.Push(value);
-        return RunSimpleQuery(query);
+        return Await(SetAsync(key, value));
     }
 
     /// <summary>
-    /// This function will create a SET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a SET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public async Task<SkyResult<Element>> SetAsync(String key, String value)
+    public CompletableFuture<SkyResult<Element>> SetAsync(String key, String value)
     {
-        var query = new Query();
-        query.Push("set");
+        var query = PreparedQuery.SET.Start(QUERIES.get());
         query.Push(key);
         query.Push(value);
-        return await RunSimpleQueryAsync(query);
+        return RunSimpleQueryAsync(query);
     }
 
     /// <summary>
@@ -395,27 +694,21 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> Set(String key, Skyhash value)
+    public SkyResult<Element> Set(String key, Skyhash value) throws Exception
     {
-        var query = new Query();
-        query.Push("set");
-        query.Push(key);
-        query.Push(value.Into());
-        return RunSimpleQuery(query);
+        return Await(SetAsync(key, value));
     }
 
     /// <summary>
-    /// This function will create a SET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a SET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public async Task<SkyResult<Element>> SetAsync(String key, Skyhash value)
+    public CompletableFuture<SkyResult<Element>> SetAsync(String key, Skyhash value)
     {
-        var query = new Query();
-        query.Push("set");
+        var query = PreparedQuery.SET.Start(QUERIES.get());
         query.Push(key);
         query.Push(value.Into());
-        return await RunSimpleQueryAsync(query);
+        return RunSimpleQueryAsync(query);
     }
 
     /// <summary>
@@ -423,25 +716,20 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> Delete(String key)
+    public SkyResult<Element> Delete(String key) throws Exception
     {
-        var query = new Query();
-        query.Push("del");
-        query.Push(key);
-        return RunSimpleQuery(query);
+        return Await(DeleteAsync(key));
     }
 
     /// <summary>
-    /// This function will create a DEL <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a DEL <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public async Task<SkyResult<Element>> DeleteAsync(String key)
+    public CompletableFuture<SkyResult<Element>> DeleteAsync(String key)
     {
-        var query = new Query();
-        query.Push("del");
+        var query = PreparedQuery.DEL.Start(QUERIES.get());
         query.Push(key);
-        return await RunSimpleQueryAsync(query);
+        return RunSimpleQueryAsync(query);
     }
 
     /// <summary>
@@ -449,27 +737,21 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> USet(String key, String value)
+    public SkyResult<Element> USet(String key, String value) throws Exception
     {
-        var query = new Query();
-        query.Push("uset");
-        query.Push(key);
-        query.Push(value);
-        return RunSimpleQuery(query);
+        return Await(USetAsync(key, value));
     }
 
     /// <summary>
-    /// This function will create an USET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create an USET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public async Task<SkyResult<Element>> USetAsync(String key, String value)
+    public CompletableFuture<SkyResult<Element>> USetAsync(String key, String value)
     {
-        var query = new Query();
-        query.Push("uset");
+        var query = PreparedQuery.USET.Start(QUERIES.get());
         query.Push(key);
         query.Push(value);
-        return await RunSimpleQueryAsync(query);
+        return RunSimpleQueryAsync(query);
     }
 
     /// <summary>
@@ -477,27 +759,21 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> USet(String key, Skyhash value)
+    public SkyResult<Element> USet(String key, Skyhash value) throws Exception
     {
-        var query = new Query();
-        query.Push("uset");
-        query.Push(key);
-        query.Push(value.Into());
-        return RunSimpleQuery(query);
+        return Await(USetAsync(key, value));
     }
 
     /// <summary>
-    /// This function will create an USET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create an USET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public async Task<SkyResult<Element>> USetAsync(String key, Skyhash value)
+    public CompletableFuture<SkyResult<Element>> USetAsync(String key, Skyhash value)
     {
-        var query = new Query();
-        query.Push("uset");
+        var query = PreparedQuery.USET.Start(QUERIES.get());
         query.Push(key);
         query.Push(value.Into());
-        return await RunSimpleQueryAsync(query);
+        return RunSimpleQueryAsync(query);
     }
 
     /// <summary>
@@ -505,35 +781,53 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> Use(String keyspace, String table)
+    public SkyResult<Element> Use(String keyspace, String table) throws Exception
     {
-        var entity = String.Join(':', keyspace, table);
-        var query = new Query();
-        query.Push("use");
-        query.Push(entity);
-        var result = RunSimpleQuery(query);
-        if (result.IsOk) // TODO: Check if the Response Element is Okay.
-            Entity = entity;
-
-        return result;
+        return Await(UseAsync(keyspace, table));
     }
 
     /// <summary>
-    /// This function will create a USE <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a USE <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
+    /// <see cref="Connection.Entity"/> is updated before the future completes if the server switched the entity.
+    /// Nothing is sent if the connection is already on the entity, or a USE of the same entity has been written and
+    /// not failed; the future is completed with the answer to that USE.
     /// </summary>
-    public async Task<SkyResult<Element>> UseAsync(String keyspace, String table)
+    public CompletableFuture<SkyResult<Element>> UseAsync(String keyspace, String table)
     {
-        var entity = String.Join(':', keyspace, table);
-        var query = new Query();
-        query.Push("use");
-        query.Push(entity);
-        var result = await RunSimpleQueryAsync(query);
-        if (result.IsOk) // TODO: Check if the Response Element is Okay.
-            Entity = entity;
+        var entity = keyspace + ':' + table;
+        _writeLock.lock();
+        try
+        {
+            AwaitStream();
+            // The server would only confirm what it has been asked already.
+            var use = _use;
+            var failed = use.isDone() && (use.isCompletedExceptionally() || !IsOkay(use.join()));
+            if (entity.equals(_useEntity) && !failed && isConnected())
+                return use.copy();
+
+            var query = PreparedQuery.USE.Start(QUERIES.get());
+            query.Push(entity);
+            use = RunSimpleQueryAsync(query).thenApply(result ->
+            {
+                if (IsOkay(result))
+                    Entity = entity;
 
-        return result;
+                return result;
+            });
+            _useEntity = entity;
+            _use = use;
+            return use.copy();
+        }
+        finally
+        {
+            _writeLock.unlock();
+        }
+    }
+
+    private static boolean IsOkay(SkyResult<Element> result)
+    {
+        return result.IsOk && result.Item.Type == ElementType.RespCode && result.Item.AsResponseCode().Code == RespCode.Okay;
     }
 
     /// <summary>
@@ -541,25 +835,20 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> Pop(String key)
+    public SkyResult<Element> Pop(String key) throws Exception
     {
-        var query = new Query();
-        query.Push("pop");
-        query.Push(key);
-        return RunSimpleQuery(query);
+        return Await(PopAsync(key));
     }
 
     /// <summary>
-    /// This function will create a POP <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a POP <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public async Task<SkyResult<Element>> PopAsync(String key)
+    public CompletableFuture<SkyResult<Element>> PopAsync(String key)
     {
-        var query = new Query();
-        query.Push("pop");
+        var query = PreparedQuery.POP.Start(QUERIES.get());
         query.Push(key);
-        return await RunSimpleQueryAsync(query);
+        return RunSimpleQueryAsync(query);
     }
 
     /// <summary>
@@ -567,30 +856,156 @@ public class Connection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and try to return type T if successful.
     /// </summary>
-    public SkyResult<T> Pop<T>(String key) where T: Skyhash, new()
+    public <T extends Skyhash> SkyResult<T> Pop(String key, Supplier<T> factory) throws Exception
     {
-        var query = new Query();
-        query.Push("pop");
-        query.Push(key);
-        var result = RunSimpleQuery(query);
-        if (result.IsOk)
-            return SkyResult<T>.Ok(new T().From<T>(result.Item));
-        return SkyResult<T>.Err(result.Error);
+        return Await(PopAsync(key, factory));
     }
 
     /// <summary>
-    /// This function will create a POP <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and try to return type T if successful.
+    /// This function will create a POP <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with the response turned into type T if it could be read.
     /// </summary>
-    public async Task<SkyResult<T>> PopAsync<T>(String key) where T: Skyhash, new()
+    public <T extends Skyhash> CompletableFuture<SkyResult<T>> PopAsync(String key, Supplier<T> factory)
     {
-        var query = new Query();
-        query.Push("pop");
-        query.Push(key);
-        var response = await RunSimpleQueryAsync(query);
-        if (response.IsOk)
-            return SkyResult<T>.Ok(new T().From<T>(response.Item));
-        return SkyResult<T>.Err(response.Error);
+        return PopAsync(key).thenApply(result -> Into(result, factory));
+    }
+
+    private static <T extends Skyhash> SkyResult<T> Into(SkyResult<Element> result, Supplier<T> factory)
+    {
+        if (result.IsOk)
+            return SkyResult.Ok(factory.get().<T>From(result.Item));
+        return SkyResult.Err(result.Error);
+    }
+
+    /// A pipeline returned by OpenPipeline, which writes straight to the transport and gives the stream back when it
+    /// is closed without being run.
+    private final class StreamingPipeline extends Pipeline
+    {
+        private final SocketTransport _target;
+
+        StreamingPipeline(int count, SocketTransport target)
+        {
+            super(count, target.getOutputStream());
+            _target = target;
+        }
+
+        @Override
+        public void close()
+        {
+            _writeLock.lock();
+            try
+            {
+                if (_openPipeline == this)
+                {
+                    // The server would read the queries that follow as the rest of this packet.
+                    if (isStarted())
+                        _target.Close();
+                    ReleaseStream();
+                }
+            }
+            finally
+            {
+                _writeLock.unlock();
+            }
+            super.close();
+        }
+    }
+
+    /// Queries gathered by write coalescing, and the futures of their callers.
+    private static final class Batch
+    {
+        final Pipeline Pipeline = new Pipeline();
+        final List<CompletableFuture<SkyResult<Element>>> Members = new ArrayList<>();
+        // The System.nanoTime at which the first member times out, or Long.MAX_VALUE if none of them does.
+        long Deadline = Long.MAX_VALUE;
+    }
+
+    /// A query waiting for its response, completed on the loop thread.
+    private static final class PendingQuery<U> extends CompletableFuture<SkyResult<U>>
+    {
+        private final Supplier<SkyResult<U>> _parse;
+        private SkyResult<U> _result;
+
+        PendingQuery(Supplier<SkyResult<U>> parse)
+        {
+            _parse = parse;
+        }
+
+        /// Parses what has been received so far. Returns false if the response has not fully arrived yet.
+        boolean TryParse()
+        {
+            var result = _parse.get();
+
+            // We need to read again to get the complete response.
+            if (result.IsError && (result.Error == ParseError.NotEnough || result.Error == ParseError.Empty))
+                return false;
+
+            _result = result;
+            return true;
+        }
+
+        /// Completes the query with its parsed response and returns the error if it could not be parsed. This
+        /// does nothing for a caller that has stopped waiting, the response has been consumed either way.
+        ParseError Complete()
+        {
+            complete(_result);
+            return _result.IsError ? _result.Error : null;
+        }
+    }
+
+    /// Reads whatever the server sends into the parser and completes the queries in flight, on the loop thread.
+    private final class Receiver implements ITransportListener
+    {
+        @Override
+        public void OnReadable(ReadableByteChannel channel) throws IOException
+        {
+            int read;
+            // Read as much as the kernel has, parsing in between so that streamed responses stay bounded.
+            while ((read = _parser.ReadFrom(channel)) > 0)
+                CompleteResponses();
+
+            if (read < 0)
+                throw new EOFException("ConnectionReset");
+        }
+
+        @Override
+        public void OnClosed(Throwable cause)
+        {
+            var error = cause != null ? cause : new IOException("The connection was closed.");
+            PendingQuery<?> pending;
+            while ((pending = _inFlight.poll()) != null)
+                pending.completeExceptionally(error);
+
+            var listener = _closedListener;
+            if (listener != null)
+                listener.run();
+
+            // The parser is only touched on the loop thread; drop what is left of the stream and give back its buffer.
+            try
+            {
+                _loop.Execute(_parser::Recycle);
+            }
+            catch (IllegalStateException e)
+            {
+                // The loop is gone, the buffer is left to the garbage collector.
+            }
+        }
+
+        private void CompleteResponses() throws IOException
+        {
+            PendingQuery<?> pending;
+            while ((pending = _inFlight.peek()) != null)
+            {
+                if (!pending.TryParse())
+                    return;
+
+                // Removed before it is completed, so a query that is done is only found in flight if it was abandoned.
+                _inFlight.poll();
+                var error = pending.Complete();
+                // The parser has discarded its buffer, the responses that follow can no longer be matched to their queries.
+                if (error != null)
+                    throw new IOException("A response could not be parsed: " + error);
+            }
+        }
     }
 }
@@ -1,36 +1,159 @@
 package tech.novoess.skytable4j;
 
-
-import javafx.concurrent.Task;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 /// <summary>
-/// A builder to create a <see cref="Connection"/>.
+/// A builder to create a <see cref="Connection"/>, a <see cref="ConnectionPool"/> or the <see cref="ConnectionConfig"/>
+/// they share. Every builder has settings of its own, so differently tuned connections can be built side by side.
 /// </summary>
 public class ConnectionBuilder
 {
-    private static String _host = "127.0.0.1";
-    private static short _port = 2003;
-    private static String _certPath = "";
+    private String _host = "127.0.0.1";
+    private short _port = 2003;
+    private String _certPath = "";
+    private Path _socketPath = null;
+    private boolean _noDelay = true;
+    private boolean _keepAlive = false;
+    private int _sendBufferSize = 0;
+    private int _receiveBufferSize = 0;
+    private int _readBufferSize = 4096;
+    private int _maxFrameSize = Integer.MAX_VALUE;
+    private Duration _timeout = null;
+    private Duration _connectTimeout = null;
+
+    /// <summary>Creates a builder with the default settings.</summary>
+    public ConnectionBuilder()
+    {
+    }
+
+    /// <summary>Creates a builder that starts from the settings of the given configuration.</summary>
+    /// <param name="config">The configuration to copy.</param>
+    public ConnectionBuilder(ConnectionConfig config)
+    {
+        _host = config.Host;
+        _port = config.Port;
+        _certPath = config.CertPath;
+        _socketPath = config.SocketPath;
+        _noDelay = config.NoDelay;
+        _keepAlive = config.KeepAlive;
+        _sendBufferSize = config.SendBufferSize;
+        _receiveBufferSize = config.ReceiveBufferSize;
+        _readBufferSize = config.ReadBufferSize;
+        _maxFrameSize = config.MaxFrameSize;
+        _timeout = config.Timeout;
+        _connectTimeout = config.ConnectTimeout;
+    }
 
     /// <summary>Sets the Host that the connection should be made to. Default is '127.0.0.1'.</summary>
     /// <param name="host">The host that the connection should be made to.</param>
-    public static void setHost(String host)
+    public ConnectionBuilder setHost(String host)
     {
         _host = host;
+        return this;
     }
 
     /// <summary>Sets the Port that the connection should be made to. Default is '2003'.</summary>
     /// <param name="port">The port that the connection should be made to.</param>
-    public static void setPort(short port)
+    public ConnectionBuilder setPort(short port)
     {
         _port = port;
+        return this;
     }
 
     /// <summary>Enables TLS on the connection using the provided certificate file.</summary>
     /// <param name="certPath">The path to the certificate file that should be used for the communication.</param>
-    public static void UseTls(String certPath)
+    public ConnectionBuilder UseTls(String certPath)
     {
         _certPath = certPath;
+        return this;
+    }
+
+    /// <summary>
+    /// Connects over the Unix domain socket at the provided path instead of the Host and Port, for a Skytable instance
+    /// running on the same machine. Pass null to go back to TCP.
+    /// </summary>
+    /// <param name="socketPath">The path of the socket that Skytable is listening on.</param>
+    public ConnectionBuilder UseUnixSocket(Path socketPath)
+    {
+        _socketPath = socketPath;
+        return this;
+    }
+
+    /// <summary>Sets whether small writes are sent right away instead of being delayed by Nagle's algorithm. Default is true.</summary>
+    /// <param name="noDelay">The value of TCP_NODELAY.</param>
+    public ConnectionBuilder setNoDelay(boolean noDelay)
+    {
+        _noDelay = noDelay;
+        return this;
+    }
+
+    /// <summary>Sets whether the operating system probes idle connections. Default is false.</summary>
+    /// <param name="keepAlive">The value of SO_KEEPALIVE.</param>
+    public ConnectionBuilder setKeepAlive(boolean keepAlive)
+    {
+        _keepAlive = keepAlive;
+        return this;
+    }
+
+    /// <summary>Sets the size of the socket's send buffer. Default is 0, which leaves it to the operating system.</summary>
+    /// <param name="sendBufferSize">The value of SO_SNDBUF.</param>
+    public ConnectionBuilder setSendBufferSize(int sendBufferSize)
+    {
+        _sendBufferSize = RequireNonNegative(sendBufferSize);
+        return this;
+    }
+
+    /// <summary>Sets the size of the socket's receive buffer. Default is 0, which leaves it to the operating system.</summary>
+    /// <param name="receiveBufferSize">The value of SO_RCVBUF.</param>
+    public ConnectionBuilder setReceiveBufferSize(int receiveBufferSize)
+    {
+        _receiveBufferSize = RequireNonNegative(receiveBufferSize);
+        return this;
+    }
+
+    /// <summary>Sets the size the buffer that responses are read into starts with. Default is 4096.</summary>
+    /// <param name="readBufferSize">The initial size of the read buffer.</param>
+    public ConnectionBuilder setReadBufferSize(int readBufferSize)
+    {
+        _readBufferSize = RequirePositive(readBufferSize);
+        return this;
+    }
+
+    /// <summary>Sets the largest response that is accepted; a larger one closes the connection. Default is no limit.</summary>
+    /// <param name="maxFrameSize">The largest response, in bytes.</param>
+    public ConnectionBuilder setMaxFrameSize(int maxFrameSize)
+    {
+        _maxFrameSize = RequirePositive(maxFrameSize);
+        return this;
+    }
+
+    /// <summary>
+    /// Sets how long every query waits for its response before it fails with a Timeout error. Default is null, which
+    /// waits forever.
+    /// </summary>
+    /// <param name="timeout">The default timeout of the queries run on the connection.</param>
+    public ConnectionBuilder setTimeout(Duration timeout)
+    {
+        _timeout = timeout;
+        return this;
+    }
+
+    /// <summary>Sets how long connecting, including the Tls handshake, may take. Default is null, which waits forever.</summary>
+    /// <param name="connectTimeout">The longest time connecting may take.</param>
+    public ConnectionBuilder setConnectTimeout(Duration connectTimeout)
+    {
+        _connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /// <summary>Creates a <see cref="ConnectionConfig"/> holding the current settings. Later changes to the builder do not affect it.</summary>
+    public ConnectionConfig BuildConfig()
+    {
+        return new ConnectionConfig(_host, _port, _certPath, _socketPath, _noDelay, _keepAlive, _sendBufferSize,
+                _receiveBufferSize, _readBufferSize, _maxFrameSize, _timeout, _connectTimeout);
     }
 
     /// <summary>
@@ -38,9 +161,9 @@ public class ConnectionBuilder
     /// If a certificate path has been provided through the <see cref="ConnectionBuilder.UseTls"/> function it will attempt to
     /// connect to the Skytable instance securely.
     ///</summary>
-    public static Connection Build()
+    public Connection Build() throws IOException
     {
-        var connection = new Connection(_host, _port, _certPath);
+        var connection = new Connection(BuildConfig());
         connection.Connect();
         return connection;
     }
@@ -50,10 +173,32 @@ public class ConnectionBuilder
     /// If a certificate path has been provided through the <see cref="ConnectionBuilder.UseTls"/> function it will attempt to
     /// connect to the Skytable instance securely.
     ///</summary>
-    public static Connection BuildAsync()
+    public CompletableFuture<Connection> BuildAsync()
     {
-        var connection = new Connection(_host, _port, _certPath);
-        connection.ConnectAsync();
-        return connection;
+        var connection = new Connection(BuildConfig());
+        return connection.ConnectAsync().thenApply(connected -> connection);
+    }
+
+    /// <summary>Creates a <see cref="ConnectionPool"/> whose connections use the current settings. Call Initialize before using it.</summary>
+    /// <param name="keyspace">The keyspace that the connections of the pool should target.</param>
+    /// <param name="table">The table that the connections of the pool should target.</param>
+    /// <param name="allowTemporaryConnections">Allow the pool to create temporary connections in the case where it runs out of pooled connections.</param>
+    public ConnectionPool BuildPool(String keyspace, String table, boolean allowTemporaryConnections)
+    {
+        return new ConnectionPool(BuildConfig(), keyspace, table, allowTemporaryConnections);
+    }
+
+    private static int RequireNonNegative(int value)
+    {
+        if (value < 0)
+            throw new IllegalArgumentException("The value cannot be negative.");
+        return value;
+    }
+
+    private static int RequirePositive(int value)
+    {
+        if (value <= 0)
+            throw new IllegalArgumentException("The value has to be positive.");
+        return value;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package tech.novoess.skytable4j;
+
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <summary>
+ * The settings of a <see cref="Connection"/>: where to connect, how the socket is tuned and how long to wait.
+ * A configuration never changes once it has been built with a <see cref="ConnectionBuilder"/>, so one can be shared by
+ * every connection of a pool while another pool in the same process uses different settings.
+ * </summary>
+ */
+public final class ConnectionConfig
+{
+    /// <summary>The configuration a new <see cref="ConnectionBuilder"/> starts from.</summary>
+    public static final ConnectionConfig DEFAULT = new ConnectionBuilder().BuildConfig();
+
+    /// <summary>The host which is running Skytable.</summary>
+    public final String Host;
+
+    /// <summary>The port which the host is running Skytable.</summary>
+    public final short Port;
+
+    /// <summary>Path to the certificate file if Tls is used, otherwise empty.</summary>
+    public final String CertPath;
+
+    /// <summary>Path to the Unix domain socket Skytable listens on, which is used instead of Host and Port, or null.</summary>
+    public final Path SocketPath;
+
+    /// <summary>Whether small writes are sent right away (TCP_NODELAY).</summary>
+    public final boolean NoDelay;
+
+    /// <summary>Whether the operating system probes idle connections (SO_KEEPALIVE).</summary>
+    public final boolean KeepAlive;
+
+    /// <summary>The size of the socket's send buffer (SO_SNDBUF), or 0 to leave it to the operating system.</summary>
+    public final int SendBufferSize;
+
+    /// <summary>The size of the socket's receive buffer (SO_RCVBUF), or 0 to leave it to the operating system.</summary>
+    public final int ReceiveBufferSize;
+
+    /// <summary>The size the buffer that responses are read into starts with, and shrinks back to after large responses.</summary>
+    public final int ReadBufferSize;
+
+    /// <summary>The largest response that is accepted. A larger one closes the connection.</summary>
+    public final int MaxFrameSize;
+
+    /// <summary>How long a query waits for its response before it fails with a Timeout error, or null to wait forever.</summary>
+    public final Duration Timeout;
+
+    /// <summary>How long connecting, including the Tls handshake, may take, or null to wait forever.</summary>
+    public final Duration ConnectTimeout;
+
+    ConnectionConfig(String host, short port, String certPath, Path socketPath, boolean noDelay, boolean keepAlive,
+                     int sendBufferSize, int receiveBufferSize, int readBufferSize, int maxFrameSize,
+                     Duration timeout, Duration connectTimeout)
+    {
+        Host = host;
+        Port = port;
+        CertPath = certPath;
+        SocketPath = socketPath;
+        NoDelay = noDelay;
+        KeepAlive = keepAlive;
+        SendBufferSize = sendBufferSize;
+        ReceiveBufferSize = receiveBufferSize;
+        ReadBufferSize = readBufferSize;
+        MaxFrameSize = maxFrameSize;
+        Timeout = timeout;
+        ConnectTimeout = connectTimeout;
+    }
+
+    /// <summary>Returns true if the connections use Tls.</summary>
+    public boolean UsesTls()
+    {
+        return SocketPath == null && CertPath != null && !CertPath.isEmpty();
+    }
+
+    /// The socket options to set on a new channel; the transport skips the ones a Unix domain socket does not have.
+    Map<SocketOption<?>, Object> SocketOptions()
+    {
+        var options = new HashMap<SocketOption<?>, Object>();
+        options.put(StandardSocketOptions.TCP_NODELAY, NoDelay);
+        options.put(StandardSocketOptions.SO_KEEPALIVE, KeepAlive);
+        if (SendBufferSize > 0)
+            options.put(StandardSocketOptions.SO_SNDBUF, SendBufferSize);
+        if (ReceiveBufferSize > 0)
+            options.put(StandardSocketOptions.SO_RCVBUF, ReceiveBufferSize);
+        return options;
+    }
+}
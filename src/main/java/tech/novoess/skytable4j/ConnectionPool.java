@@ -1,29 +1,170 @@
 package tech.novoess.skytable4j;
 
+import tech.novoess.skytable4j.querying.ElementType;
+import tech.novoess.skytable4j.querying.RespCode;
 
-/// <summary>A database connection pool for Skyhash/TCP.</summary>
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/// <summary>
+/// A database connection pool for Skyhash/TCP. Borrowing and returning a connection take no lock: a platform thread
+/// first tries the connection it used last, then scans the pool's entries from a random starting point, and takes an
+/// idle one with a single compare-and-set, so threads on many cores do not queue up on one shared head.
+/// Borrowers that find the pool empty queue up and park until a connection is returned, which costs a virtual thread
+/// nothing more than being unmounted from its carrier. A returned connection is handed straight to the borrower that
+/// has waited longest, so a burst is served in arrival order, and a borrower that waits longer than
+/// <see cref="ConnectionPool.MaxWait"/> fails instead.
+/// The pool holds between a minimum and a maximum number of connections. Connections are opened in parallel in the
+/// background, when the pool starts, when borrowers are waiting and it can still grow, and to replace dead ones, so
+/// borrowers never connect themselves. If a connection cannot be opened, the borrower waiting for it fails with the
+/// cause, and the pool waits longer after every further failure before it tries again. Connections that have been idle for longer than
+/// <see cref="ConnectionPool.IdleTimeout"/> are closed again down to the minimum.
+/// One pool serves any number of entities. Every connection stays on the entity it was last switched to, a borrower
+/// asking for an entity gets a connection that is already on it if one is idle, and USE is only sent when the
+/// connection it gets has to change.
+/// Borrowing does not validate the connection. Instead the pool drops a connection as soon as its socket closes, and
+/// sends a heartbeat on connections that have been idle for a while to find the half-open ones the operating system
+/// has not noticed, so a borrower is not handed a dead connection and does not pay for a check either.
+/// </summary>
 public class ConnectionPool
 {
     /// <summary>Gets the host that this connection pool is connected to.</summary>
-    public string Host { get; }
+    public final String Host;
 
     /// <summary>Gets the port that this connection pool is connected to.</summary>
-    public ushort Port { get; }
-
-    /// <summary>Gets the count of the connections handled by this pool.</summary>
-    public ushort Count { get; private set; }
+    public final short Port;
 
-    /// <summary>Gets the entity that this connection pool is targeting.</summary>
-    public string Entity { get; }
+    /// <summary>Gets the entity that this connection pool is targeting unless another one is asked for when borrowing.</summary>
+    public final String Entity;
 
     /// <summary>Gets or sets whether the pool should be able to create temporary connections in the case where it runs out of pooled connections.</summary>
-    public bool AllowTemporaryConnections { get; set; }
+    public volatile boolean AllowTemporaryConnections;
+
+    /// <summary>
+    /// Gets or sets how long a borrower waits for a connection before <see cref="ConnectionPool.Connection"/> throws a
+    /// <see cref="PoolTimeoutException"/>. Null waits forever. When temporary connections are allowed a borrower only
+    /// waits while the pool can still grow; once it holds its maximum number of connections a temporary one is created.
+    /// </summary>
+    public volatile Duration MaxWait;
+
+    /// <summary>
+    /// Gets or sets how long a connection stays idle in the pool before it is closed, as long as the pool holds more
+    /// than its minimum size. Null keeps idle connections open.
+    /// </summary>
+    public volatile Duration IdleTimeout = Duration.ofMinutes(10);
+
+    /// <summary>
+    /// Gets or sets how long a connection may sit idle before the pool sends it a HEYA to check that the server still
+    /// answers. Null turns heartbeats off.
+    /// </summary>
+    public volatile Duration HeartbeatInterval = Duration.ofSeconds(30);
+
+    /// <summary>
+    /// Gets or sets how long the pool waits for the answer to a heartbeat before it gives the connection up as
+    /// half-open, a socket whose peer is gone without having closed it.
+    /// </summary>
+    public volatile Duration HeartbeatTimeout = Duration.ofSeconds(5);
 
-    private ConcurrentQueue<Connection> _connections;
-    private volatile ushort _borrowedCount = 0;
-    private bool _initialized = false;
-    private string _keyspace;
-    private string _table;
+    /// <summary>Gets the configuration of the pooled connections.</summary>
+    public ConnectionConfig getConfig()
+    {
+        return _config;
+    }
+
+    /// <summary>Gets the count of the connections handled by this pool, including the ones being opened.</summary>
+    public int getCount()
+    {
+        return _count.get();
+    }
+
+    /// <summary>Gets the number of connections the pool keeps open even when they are idle.</summary>
+    public int getMinSize()
+    {
+        return _minSize;
+    }
+
+    /// <summary>Gets the number of connections the pool grows to when borrowers are waiting.</summary>
+    public int getMaxSize()
+    {
+        return _maxSize;
+    }
+
+    /// <summary>Gets the count of the connections that are currently borrowed from this pool.</summary>
+    public int getBorrowedCount()
+    {
+        return _borrowedCount.get();
+    }
+
+    /// <summary>Gets the count of the borrowers that are waiting for a connection to be returned.</summary>
+    public int getWaitingCount()
+    {
+        return _waiting.get();
+    }
+
+    // Opens connections for every pool, so that a pool of any size starts in about one round trip.
+    private static final ExecutorService OPENER = RequestExecutors.PerRequest();
+    // Evicts idle connections and refills the pools.
+    private static final ScheduledExecutorService MAINTENANCE = Executors.newSingleThreadScheduledExecutor(task ->
+    {
+        var thread = new Thread(task, "skytable4j-pool-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final long MAINTENANCE_PERIOD_MILLIS = 500;
+    // How long a handoff waits for a borrower to take it before the waiting count is looked at again.
+    private static final long HANDOFF_MILLIS = 10;
+    // The pause after a failed open, doubled with every further failure in a row up to the maximum.
+    private static final long OPEN_BACKOFF_MILLIS = 100;
+    private static final long MAX_OPEN_BACKOFF_MILLIS = 30_000;
+    private static final PoolEntry[] NO_ENTRIES = new PoolEntry[0];
+    // Handed to the waiting borrowers when the pool is closed.
+    private static final PoolEntry CLOSED = new PoolEntry(null);
+    // Handed to a waiting borrower when the connection opened for it could not be opened.
+    private static final PoolEntry FAILED = new PoolEntry(null);
+
+    // Every open connection. Replaced as a whole when one is added or removed, which is rare, so borrowers read it without a lock.
+    private volatile PoolEntry[] _entries = NO_ENTRIES;
+    // Held while the entries are replaced.
+    private final ReentrantLock _entriesLock = new ReentrantLock();
+    // The connection each platform thread used last, which it most likely gets again without touching the shared
+    // entries. Weak, so that a removed entry and its closed connection are not kept alive by a long-lived thread.
+    private final ThreadLocal<WeakReference<PoolEntry>> _lastUsed = new ThreadLocal<>();
+    // Returned connections are handed to the waiting borrowers through this, longest waiting first.
+    private final SynchronousQueue<PoolEntry> _handoff = new SynchronousQueue<>(true);
+    private final AtomicInteger _waiting = new AtomicInteger();
+    private final AtomicInteger _borrowedCount = new AtomicInteger();
+    // Connections that are being opened in the background.
+    private final AtomicInteger _openingCount = new AtomicInteger();
+    // Idle, borrowed and opening connections.
+    private final AtomicInteger _count = new AtomicInteger();
+    // Opens that failed in a row, and the System.nanoTime before which no further one is started.
+    private final AtomicInteger _failedOpens = new AtomicInteger();
+    private volatile long _retryAt;
+    private volatile Throwable _openFailure;
+    private final AtomicBoolean _started = new AtomicBoolean();
+    private volatile int _minSize;
+    private volatile int _maxSize;
+    private volatile boolean _initialized = false;
+    private volatile boolean _closed = false;
+    private volatile ScheduledFuture<?> _maintenance;
+    private final ConnectionConfig _config;
+    private final String _keyspace;
+    private final String _table;
 
     /// <summary>Create a new connection pool to a Skytable instance hosted on the provided host and port with Tls disabled. Call Initialize to create the connections to the Skytable instance.</summary>
     /// <Param name="host">The host which is running Skytable.</Param>
@@ -31,92 +172,571 @@ public class ConnectionPool
     /// <Param name="keyspace">The keyspace that the connections of this pool should target.</Param>
     /// <Param name="table">The table that the connections of this pool should target.</Param>
     /// <Param name="allowTemporaryConnection">Allow the pool to create temporary connections in the case where it runs out of pooled connections.</Param>
-    public ConnectionPool(string host, ushort port, string keyspace, string table, bool allowTemporaryConnection)
+    public ConnectionPool(String host, int port, String keyspace, String table, boolean allowTemporaryConnection)
     {
-        Host = host;
-        Port = port;
+        this(new ConnectionBuilder().setHost(host).setPort((short) port).BuildConfig(), keyspace, table, allowTemporaryConnection);
+    }
+
+    /// <summary>Create a new connection pool whose connections use the given configuration. Call Initialize to create the connections to the Skytable instance.</summary>
+    /// <Param name="config">The configuration of the pooled connections, built with a <see cref="ConnectionBuilder"/>.</Param>
+    /// <Param name="keyspace">The keyspace that the connections of this pool should target.</Param>
+    /// <Param name="table">The table that the connections of this pool should target.</Param>
+    /// <Param name="allowTemporaryConnection">Allow the pool to create temporary connections in the case where it runs out of pooled connections.</Param>
+    public ConnectionPool(ConnectionConfig config, String keyspace, String table, boolean allowTemporaryConnection)
+    {
+        _config = config;
+        Host = config.Host;
+        Port = config.Port;
         _keyspace = keyspace;
         _table = table;
-        Entity = string.Join(':', keyspace, table);
+        Entity = keyspace + ':' + table;
         AllowTemporaryConnections = allowTemporaryConnection;
-        _connections = new ConcurrentQueue<Connection>();
     }
 
-    /// <summary>Initialize the pool with the specified amount of connections.</summary>
+    /// <summary>Initialize the pool with the specified amount of connections, which it keeps at all times.</summary>
     /// <Param name="count">The count of connections that the pool should have.</Param>
-    public void Initialize(ushort count)
+    public void Initialize(int count) throws Exception
     {
-        if (_initialized)
-            throw new Exception("This pool has already been initialized"); // TODO: Exception type.
+        Initialize(count, count);
+    }
 
-        // TODO: Inspect the Skytable database to make sure the target entity exists.
+    /// <summary>
+    /// Initialize the pool with the minimum amount of connections, opened in parallel. The pool grows up to the maximum
+    /// while borrowers are waiting. If a connection cannot be opened the pool is closed and the error is thrown.
+    /// </summary>
+    /// <Param name="minSize">The count of connections that the pool keeps open even when they are idle.</Param>
+    /// <Param name="maxSize">The count of connections that the pool may grow to.</Param>
+    public void Initialize(int minSize, int maxSize) throws Exception
+    {
+        try
+        {
+            Start(minSize, maxSize).get();
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /// <summary>Initialize the pool asynchronously with the specified amount of connections, which it keeps at all times.</summary>
+    /// <Param name="count">The count of connections that the pool should have.</Param>
+    public CompletableFuture<Void> InitializeAsync(int count)
+    {
+        return InitializeAsync(count, count);
+    }
 
-        Count = count;
-        for (int i = 0; i < Count; i++) {
-            _connections.Enqueue(CreateConnection());
+    /// <summary>Initialize the pool asynchronously like <see cref="ConnectionPool.Initialize(int, int)"/>.</summary>
+    /// <Param name="minSize">The count of connections that the pool keeps open even when they are idle.</Param>
+    /// <Param name="maxSize">The count of connections that the pool may grow to.</Param>
+    public CompletableFuture<Void> InitializeAsync(int minSize, int maxSize)
+    {
+        try
+        {
+            return Start(minSize, maxSize);
+        }
+        catch (RuntimeException e)
+        {
+            return CompletableFuture.failedFuture(e);
         }
+    }
 
-        _initialized = true;
+    /// <summary>
+    /// Returns a connection from the pool if there is one available.
+    /// If no connections are available and <see cref="ConnectionPool.AllowTemporaryConnections" /> is set to true, a new
+    /// temporary connection will be created once the pool has reached its maximum size. Otherwise the calling thread
+    /// waits its turn for a returned or newly opened connection, for at most <see cref="ConnectionPool.MaxWait"/>.
+    /// </summary>
+    public PooledConnection Connection() throws Exception
+    {
+        return Connection(MaxWait);
     }
 
-    /// <summary>Initialize the pool asynchronously with the specified amount of connections.</summary>
-    /// <Param name="count">The count of connections that the pool should have.</Param>
-    public async Task InitializeAsync(ushort count)
+    /// <summary>
+    /// Returns a connection from the pool like <see cref="ConnectionPool.Connection"/>, waiting at most the given time
+    /// instead of <see cref="ConnectionPool.MaxWait"/>. Null waits forever.
+    /// </summary>
+    public PooledConnection Connection(Duration maxWait) throws Exception
     {
-        if (_initialized)
-            throw new Exception("This pool has already been initialized"); // TODO: Exception type.
+        return Connection(_keyspace, _table, maxWait);
+    }
 
-        // TODO: Inspect the Skytable database to make sure the target entity exists.
+    /// <summary>
+    /// Returns a connection from the pool like <see cref="ConnectionPool.Connection"/> that targets the given entity
+    /// instead of the pool's. A connection that is already on the entity is preferred; otherwise the connection is
+    /// switched with USE before it is returned, and keeps the entity when it goes back into the pool.
+    /// </summary>
+    /// <Param name="keyspace">The keyspace that the connection should target.</Param>
+    /// <Param name="table">The table that the connection should target.</Param>
+    public PooledConnection Connection(String keyspace, String table) throws Exception
+    {
+        return Connection(keyspace, table, MaxWait);
+    }
+
+    /// <summary>
+    /// Returns a connection that targets the given entity like <see cref="ConnectionPool.Connection(String, String)"/>,
+    /// waiting at most the given time instead of <see cref="ConnectionPool.MaxWait"/>. Null waits forever.
+    /// </summary>
+    public PooledConnection Connection(String keyspace, String table, Duration maxWait) throws Exception
+    {
+        if (!_initialized)
+            throw new IllegalStateException("Pool is not initialized. Call Pool.Initialize() before using it.");
+        if (_closed)
+            throw new IllegalStateException("The pool has been closed.");
 
-        Count = count;
-        for (int i = 0; i < Count; i++) {
-            var connection = new Connection(Host, Port);
-            await connection.ConnectAsync();
-            await connection.UseAsync(_keyspace, _table);
-            _connections.Enqueue(connection);
+        var entity = keyspace + ':' + table;
+        PoolEntry entry = null;
+        // Nobody may overtake the borrowers that are already waiting.
+        if (_waiting.get() == 0)
+        {
+            var last = LastUsed();
+            entry = last != null && entity.equals(last.Value.Entity) && last.TryBorrow() ? last : Scan(entity);
+        }
+
+        if (entry == null && AllowTemporaryConnections && _count.get() >= _maxSize)
+        {
+            var connection = CreateConnection();
+            Use(connection, keyspace, table, connection::Close);
+            return new PooledConnection(this, connection, ConnectionType.Temporary);
         }
 
-        _initialized = true;
+        if (entry == null)
+            entry = Await(entity, maxWait);
+
+        var pooled = Borrowed(entry);
+        Use(entry.Value, keyspace, table, pooled::Dispose);
+        return pooled;
     }
 
     /// <summary>
-    /// Returns a connection from the pool if there is one available.
-    /// If no connections are available and <see cref="ConnectionPool.AllowTemporaryConnections" /> is set to true, a new temporary connection will be created.
-    /// Otherwise an <see cref="Exception" /> will be thrown.
+    /// Close the pool and its idle connections. Borrowed connections are closed when they are returned, and borrowers
+    /// that are still waiting fail.
     /// </summary>
-    public PooledConnection Connection()
+    public void Close()
     {
-        if (!_initialized)
-            throw new Exception("Pool is not initialized. Call Pool.Initialize() before using it.");
+        _closed = true;
+        var maintenance = _maintenance;
+        if (maintenance != null)
+            maintenance.cancel(false);
+
+        for (var entry : _entries)
+        {
+            if (entry.TryRemove())
+                Remove(entry);
+        }
+
+        try
+        {
+            while (_waiting.get() > 0)
+                _handoff.offer(CLOSED, HANDOFF_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            // The waiters that are left notice the pool is closed when their wait ends.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /// <summary>Dispose of the pool. This will close the pool.</summary>
+    public void Dispose()
+    {
+        Close();
+    }
+
+    void Return(PoolEntry entry)
+    {
+        var connection = entry.Value;
+        // A connection still owing the response to an abandoned query may be stuck on a slow server, replace it. The
+        // replacement is opened in the background, the caller only gives its connection back.
+        if (!connection.isConnected() || connection.NeedsResync() || _closed)
+        {
+            if (entry.TryDiscard(PoolEntry.BORROWED))
+            {
+                _borrowedCount.decrementAndGet();
+                Remove(entry);
+                Fill();
+            }
+            return;
+        }
+
+        if (!entry.TryRelease())
+            return;
+        _borrowedCount.decrementAndGet();
+        Requite(entry);
+    }
 
-        if (_connections.TryDequeue(out var connection))
+    private CompletableFuture<Void> Start(int minSize, int maxSize)
+    {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+            throw new IllegalArgumentException("The pool needs 0 <= minSize <= maxSize and maxSize >= 1.");
+        if (_closed || !_started.compareAndSet(false, true))
+            throw new IllegalStateException("This pool has already been initialized");
+
+        // TODO: Inspect the Skytable database to make sure the target entity exists.
+
+        _minSize = minSize;
+        _maxSize = maxSize;
+        var opened = new CompletableFuture<?>[minSize];
+        _count.addAndGet(minSize);
+        _openingCount.addAndGet(minSize);
+        for (int i = 0; i < minSize; i++)
+            opened[i] = Open();
+        _maintenance = MAINTENANCE.scheduleWithFixedDelay(this::Maintain, MAINTENANCE_PERIOD_MILLIS,
+                MAINTENANCE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+
+        return CompletableFuture.allOf(opened).whenComplete((ignored, error) ->
+        {
+            if (error != null)
+                Close();
+            else
+                _initialized = true;
+        });
+    }
+
+    /// Opens a connection, for which a place and an open have been counted, and puts it into the pool once it is connected.
+    private CompletableFuture<Connection> Open()
+    {
+        // Completed on the opener as well, a borrower that started the open must not end up waiting on itself.
+        return CompletableFuture.supplyAsync(this::CreateConnectionUnchecked, OPENER).whenCompleteAsync((connection, error) ->
+        {
+            if (error != null)
+            {
+                Failed(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+
+            _failedOpens.set(0);
+            _openingCount.decrementAndGet();
+            var entry = new PoolEntry(connection);
+            connection.setClosedListener(() -> Evict(entry));
+            Add(entry);
+            if (_closed && entry.TryRemove())
+                Remove(entry);
+            else
+                Requite(entry);
+        }, OPENER);
+    }
+
+    /// Gives up the place of a connection that could not be opened, backs off before the next open, which the
+    /// maintenance task retries, and fails a borrower that waited for the connection. Runs on the opener thread.
+    private void Failed(Throwable cause)
+    {
+        // Backing off before the open is no longer counted, so that a concurrent Fill does not start another one.
+        var failures = _failedOpens.get() + 1;
+        var backoff = Math.min(MAX_OPEN_BACKOFF_MILLIS, OPEN_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+        _retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+        _failedOpens.set(failures);
+        _openFailure = cause;
+        _openingCount.decrementAndGet();
+        _count.decrementAndGet();
+
+        // Only when no other open is on its way for it, the borrower may be about to start waiting.
+        try
+        {
+            if (_waiting.get() > _openingCount.get())
+                _handoff.offer(FAILED, MAINTENANCE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /// Opens connections up to the minimum size, and one for every waiting borrower that no open is on its way for
+    /// as long as the pool may grow. Nothing is opened while backing off after failed opens.
+    private void Fill()
+    {
+        if (_closed || !_started.get())
+            return;
+        if (_failedOpens.get() > 0 && System.nanoTime() - _retryAt < 0)
+            return;
+
+        while (true)
+        {
+            var count = _count.get();
+            var wanted = count < _minSize || (count < _maxSize && _waiting.get() > _openingCount.get());
+            if (!wanted)
+                return;
+            // Counted as opening first, so that a concurrent Fill does not open one for the same borrower.
+            _openingCount.incrementAndGet();
+            if (_count.compareAndSet(count, count + 1))
+                Open();
+            else
+                _openingCount.decrementAndGet();
+        }
+    }
+
+    /// Closes connections that died or stayed idle for too long, and refills the pool. Runs on the maintenance thread.
+    private void Maintain()
+    {
+        var idleTimeout = IdleTimeout;
+        var heartbeatInterval = HeartbeatInterval;
+        var now = System.nanoTime();
+        for (var entry : _entries)
+        {
+            if (entry.getState() != PoolEntry.IDLE)
+                continue;
+
+            // Closed before the pool could listen for it.
+            if (!entry.Value.isConnected())
+            {
+                if (entry.TryRemove())
+                    Remove(entry);
+                continue;
+            }
+
+            // Racing borrowers may take the pool below its minimum for a moment, Fill opens what is missing.
+            var expired = idleTimeout != null && now - entry.getIdleSince() > idleTimeout.toNanos();
+            if (expired && _count.get() > _minSize && entry.TryRemove())
+                Remove(entry);
+            else if (heartbeatInterval != null && now - entry.getCheckedAt() > heartbeatInterval.toNanos())
+                Heartbeat(entry, HeartbeatTimeout);
+        }
+        Fill();
+    }
+
+    /// Looks for an idle connection, one that is on the entity first, starting at a random entry so that concurrent
+    /// borrowers try different ones.
+    private PoolEntry Scan(String entity)
+    {
+        var entries = _entries;
+        if (entries.length == 0)
+            return null;
+
+        var start = ThreadLocalRandom.current().nextInt(entries.length);
+        for (int i = 0; i < entries.length; i++)
+        {
+            var entry = entries[(start + i) % entries.length];
+            if (entity.equals(entry.Value.Entity) && entry.TryBorrow())
+                return entry;
+        }
+        for (int i = 0; i < entries.length; i++)
+        {
+            var entry = entries[(start + i) % entries.length];
+            if (entry.TryBorrow())
+                return entry;
+        }
+        return null;
+    }
+
+    /// Switches a borrowed connection to the entity, which sends nothing if it is already there. The connection is
+    /// released if that fails.
+    private static void Use(Connection connection, String keyspace, String table, Runnable release) throws Exception
+    {
+        try
+        {
+            var result = connection.Use(keyspace, table);
+            if (result.IsOk && result.Item.Type == ElementType.RespCode && result.Item.AsResponseCode().Code == RespCode.Okay)
+                return;
+
+            var answer = result.IsError ? result.Error.toString()
+                    : result.Item.Type == ElementType.RespCode ? result.Item.AsResponseCode().Code.toString()
+                    : result.Item.Type.toString();
+            throw new Exception("Could not switch the connection to " + keyspace + ':' + table + ": " + answer);
+        }
+        catch (Exception e)
+        {
+            release.run();
+            throw e;
+        }
+    }
+
+    /// Drops an idle connection whose socket has closed. Runs on the I/O thread as soon as the transport notices, or on
+    /// whichever thread closed the connection; it takes no lock but the entries' and only starts the replacement.
+    private void Evict(PoolEntry entry)
+    {
+        if (entry.TryRemove())
         {
-            _borrowedCount++;
-            return new PooledConnection(this, connection, ConnectionType.Pooled);
+            Remove(entry);
+            Fill();
         }
+    }
+
+    /// Sends a heartbeat on an idle connection that has not been used for a while. The entry is reserved meanwhile, so
+    /// no borrower can take it, and it only goes back into the pool if the server answered in time.
+    private void Heartbeat(PoolEntry entry, Duration timeout)
+    {
+        if (!entry.TryReserve())
+            return;
 
-        if (AllowTemporaryConnections)
-            return new PooledConnection(this, new Connection(Host, Port), ConnectionType.Temporary);
+        entry.Value.HeyaAsync(timeout).whenCompleteAsync((result, error) ->
+        {
+            // An answer that timed out leaves the query in flight, which also shows as NeedsResync.
+            var healthy = error == null && result.IsOk && entry.Value.isConnected() && !entry.Value.NeedsResync();
+            if (healthy && !_closed)
+            {
+                entry.Unreserve();
+                Requite(entry);
+            }
+            else if (entry.TryDiscard(PoolEntry.RESERVED))
+            {
+                Remove(entry);
+                Fill();
+            }
+        }, OPENER);
+    }
+
+    private PooledConnection Borrowed(PoolEntry entry)
+    {
+        _borrowedCount.incrementAndGet();
+        // A virtual thread is started for one request, it would never come back for the entry.
+        if (!RequestExecutors.OnVirtualThread() && LastUsed() != entry)
+            _lastUsed.set(new WeakReference<>(entry));
+        return new PooledConnection(this, entry);
+    }
+
+    /// Returns the entry the calling thread borrowed last, unless it has been taken out of the pool since.
+    private PoolEntry LastUsed()
+    {
+        var last = _lastUsed.get();
+        if (last == null)
+            return null;
+
+        var entry = last.get();
+        if (entry == null || entry.getState() == PoolEntry.REMOVED)
+        {
+            _lastUsed.remove();
+            return null;
+        }
+        return entry;
+    }
 
-        // TODO: Exception type
-        throw new Exception("No connections available.");
+    /// Hands an idle entry to the borrower that has waited longest, unless another borrower takes it first. The
+    /// borrowers that started waiting before it became idle are served before the caller gives up.
+    private void Requite(PoolEntry entry)
+    {
+        try
+        {
+            // A borrower that has been counted but is not taking from the handoff yet is waited for, parked.
+            while (_waiting.get() > 0 && entry.getState() == PoolEntry.IDLE)
+            {
+                if (_handoff.offer(entry, HANDOFF_MILLIS, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // The entry stays idle for the next borrower.
+            Thread.currentThread().interrupt();
+        }
     }
 
-    internal void Return(Connection connection)
+    /// Queues the caller and parks it until a connection is handed to it.
+    private PoolEntry Await(String entity, Duration maxWait) throws InterruptedException, IOException, PoolTimeoutException
     {
-        if (connection.IsConnected)
-            _connections.Enqueue(connection);
-        else
-            _connections.Enqueue(CreateConnection());
+        var waiting = _waiting.incrementAndGet();
+        try
+        {
+            // A connection returned just before the caller was counted is not handed to anyone. Only the first in line
+            // looks for it, the ones behind it are served in order.
+            if (waiting == 1)
+            {
+                var entry = Scan(entity);
+                if (entry != null)
+                    return entry;
+            }
+            Fill();
 
-        _borrowedCount--;
+            var deadline = maxWait == null ? 0 : System.nanoTime() + maxWait.toNanos();
+            while (true)
+            {
+                if (_closed)
+                    throw new IllegalStateException("The pool has been closed.");
+
+                PoolEntry entry;
+                if (maxWait == null)
+                {
+                    entry = _handoff.take();
+                }
+                else
+                {
+                    var remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        throw new PoolTimeoutException(maxWait, _count.get(), _waiting.get() - 1);
+                    entry = _handoff.poll(remaining, TimeUnit.NANOSECONDS);
+                }
+
+                if (entry == CLOSED)
+                    throw new IllegalStateException("The pool has been closed.");
+                if (entry == FAILED)
+                    throw new IOException("The pool could not open a connection.", _openFailure);
+                if (entry != null && entry.TryBorrow())
+                    return entry;
+            }
+        }
+        finally
+        {
+            _waiting.decrementAndGet();
+        }
     }
 
-    private Connection CreateConnection()
+    private void Add(PoolEntry entry)
     {
-        var connection = new Connection(Host, Port);
+        _entriesLock.lock();
+        try
+        {
+            var entries = Arrays.copyOf(_entries, _entries.length + 1);
+            entries[entries.length - 1] = entry;
+            _entries = entries;
+        }
+        finally
+        {
+            _entriesLock.unlock();
+        }
+    }
+
+    /// Takes a removed entry out of the pool, gives up its place and closes its connection.
+    private void Remove(PoolEntry entry)
+    {
+        _entriesLock.lock();
+        try
+        {
+            var entries = _entries;
+            for (int i = 0; i < entries.length; i++)
+            {
+                if (entries[i] == entry)
+                {
+                    var remaining = new PoolEntry[entries.length - 1];
+                    System.arraycopy(entries, 0, remaining, 0, i);
+                    System.arraycopy(entries, i + 1, remaining, i, entries.length - i - 1);
+                    _entries = remaining;
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            _entriesLock.unlock();
+        }
+
+        _count.decrementAndGet();
+        entry.Value.Close();
+    }
+
+    private Connection CreateConnection() throws Exception
+    {
+        var connection = new Connection(_config);
         connection.Connect();
-        connection.Use(_keyspace, _table);
+        try
+        {
+            connection.Use(_keyspace, _table);
+        }
+        catch (Exception e)
+        {
+            connection.Close();
+            throw e;
+        }
         return connection;
     }
+
+    private Connection CreateConnectionUnchecked()
+    {
+        try
+        {
+            return CreateConnection();
+        }
+        catch (Exception e)
+        {
+            throw new CompletionException(e);
+        }
+    }
 }
@@ -1,93 +1,129 @@
 package tech.novoess.skytable4j;
 
-import javafx.concurrent.Task;
 import tech.novoess.skytable4j.querying.*;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
 /**
  * <summary>A database connection interface for Skyhash.</summary>
  */
 public interface IConnection
 {
-    /**
-     * @param key The key of the value to be retrieved
-     * @return {@link SkyResult<T>} The value encapsulated in SkyResult
-     * @Description: This function will create a GET <see cref="Query"/> and write it to the stream and read the response from the
-     * server. It will then determine if the returned response is complete, incomplete
-     * or invalid and try to return type T if successful.
-     */
-    <T> SkyResult<T> Get(String key);
-
-    /**
-     * @param key The key of the value to be retrieved
-     * @return {@link SkyResult<T>} The value encapsulated in SkyResult
-     * @Description: This function will create a GET <see cref="Query"/> and write it to the stream and read the response from the
-     * server. It will then determine if the returned response is complete, incomplete
-     * or invalid and try to return type T if successful.
-     */
+    /// <summary>
+    /// This function will create a GET <see cref="Query"/> and write it to the stream and read the response from the
+    /// server. It will then determine if the returned response is complete, incomplete
+    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    SkyResult<Element> Get(String key) throws Exception;
+
+    /// <summary>
+    /// This function will create a GET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    CompletableFuture<SkyResult<Element>> GetAsync(String key);
+
+    /// <summary>
+    /// This function will create a GET <see cref="Query"/> and write it to the stream and read the response from the
+    /// server. It will then determine if the returned response is complete, incomplete
+    /// or invalid and try to return type T if successful.
+    /// </summary>
+    <T extends Skyhash> SkyResult<T> Get(String key, Supplier<T> factory) throws Exception;
+
+    /// <summary>
+    /// This function will create a GET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with the response turned into type T if it could be read.
+    /// </summary>
+    <T extends Skyhash> CompletableFuture<SkyResult<T>> GetAsync(String key, Supplier<T> factory);
+
     /// <summary>
     /// This function will create a SET <see cref="Query"/> and write it to the stream and read the response from the
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    <T> SkyResult<T> Set(String key, String value);
+    SkyResult<Element> Set(String key, String value) throws Exception;
+
+    /// <summary>
+    /// This function will create a SET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    CompletableFuture<SkyResult<Element>> SetAsync(String key, String value);
 
-    /**
-     * @param key The key of the value to be retrieved
-     * @return {@link SkyResult<T>} The value encapsulated in SkyResult
-     * @Description: This function will create a GET <see cref="Query"/> and write it to the stream and read the response from the
-     * server. It will then determine if the returned response is complete, incomplete
-     * or invalid and try to return type T if successful.
-     */
     /// <summary>
     /// This function will create a SET <see cref="Query"/> and write it to the stream and read the response from the
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    <T> SkyResult<T> Set(String key, Skyhash value);
+    SkyResult<Element> Set(String key, Skyhash value) throws Exception;
+
+    /// <summary>
+    /// This function will create a SET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    CompletableFuture<SkyResult<Element>> SetAsync(String key, Skyhash value);
 
-    /**
-     * @param key The key of the value to be retrieved
-     * @return {@link SkyResult<T>} The value encapsulated in SkyResult
-     * @Description: This function will create a GET <see cref="Query"/> and write it to the stream and read the response from the
-     * server. It will then determine if the returned response is complete, incomplete
-     * or invalid and try to return type T if successful.
-     */
     /// <summary>
     /// This function will create a DEL <see cref="Query"/> and write it to the stream and read the response from the
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    SkyResult<Element> Delete(String key);
+    SkyResult<Element> Delete(String key) throws Exception;
+
+    /// <summary>
+    /// This function will create a DEL <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    CompletableFuture<SkyResult<Element>> DeleteAsync(String key);
+
+    /// <summary>
+    /// This function will create an USET <see cref="Query"/> and write it to the stream and read the response from the
+    /// server. It will then determine if the returned response is complete, incomplete
+    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    SkyResult<Element> USet(String key, String value) throws Exception;
+
+    /// <summary>
+    /// This function will create an USET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    CompletableFuture<SkyResult<Element>> USetAsync(String key, String value);
 
-    /**
-     * @param key The key of the value to be retrieved
-     * @return {@link SkyResult<T>} The value encapsulated in SkyResult
-     * @Description: This function will create a GET <see cref="Query"/> and write it to the stream and read the response from the
-     * server. It will then determine if the returned response is complete, incomplete
-     * or invalid and try to return type T if successful.
-     */
     /// <summary>
     /// This function will create an USET <see cref="Query"/> and write it to the stream and read the response from the
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    SkyResult<Element> USet(String key, String value);
-
-    /**
-     * @param key The key of the value to be retrieved
-     * @return {@link SkyResult<T>} The value encapsulated in SkyResult
-     * @Description: This function will create an USET {@link Query} and write it to the stream and read the response from the
-     * server. It will then determine if the returned response is complete, incomplete
-     * or invalid and return an appropriate variant of {@link Element}.
-     */
-    SkyResult<Element> USet(String key, Skyhash value);
-
-    /**
-     * @param key The key of the value to be retrieved
-     * @return {@link SkyResult<T>} The value encapsulated in SkyResult
-     * @Description: This function will create a POP {@link Query} and write it to the stream and read the response from the
-     * server. It will then determine if the returned response is complete, incomplete
-     * or invalid and try to return type {@link T} if successful.
-     */
-    <T> SkyResult<T> Pop(String key);
+    SkyResult<Element> USet(String key, Skyhash value) throws Exception;
+
+    /// <summary>
+    /// This function will create an USET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    CompletableFuture<SkyResult<Element>> USetAsync(String key, Skyhash value);
+
+    /// <summary>
+    /// This function will create a POP <see cref="Query"/> and write it to the stream and read the response from the
+    /// server. It will then determine if the returned response is complete, incomplete
+    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    SkyResult<Element> Pop(String key) throws Exception;
+
+    /// <summary>
+    /// This function will create a POP <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    CompletableFuture<SkyResult<Element>> PopAsync(String key);
+
+    /// <summary>
+    /// This function will create a POP <see cref="Query"/> and write it to the stream and read the response from the
+    /// server. It will then determine if the returned response is complete, incomplete
+    /// or invalid and try to return type T if successful.
+    /// </summary>
+    <T extends Skyhash> SkyResult<T> Pop(String key, Supplier<T> factory) throws Exception;
+
+    /// <summary>
+    /// This function will create a POP <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with the response turned into type T if it could be read.
+    /// </summary>
+    <T extends Skyhash> CompletableFuture<SkyResult<T>> PopAsync(String key, Supplier<T> factory);
 }
@@ -0,0 +1,89 @@
+package tech.novoess.skytable4j;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <summary>
+ * A connection held by a <see cref="ConnectionPool"/>, with the state that borrowers compete for. A borrower owns the
+ * entry once it has moved it from idle to borrowed, so taking and returning a connection is a single compare-and-set.
+ * </summary>
+ */
+final class PoolEntry
+{
+    static final int IDLE = 0;
+    static final int BORROWED = 1;
+    static final int REMOVED = -1;
+    // Taken by the pool itself, to check that the connection still works.
+    static final int RESERVED = 2;
+
+    final Connection Value;
+    private final AtomicInteger _state = new AtomicInteger(IDLE);
+    // When the entry last became idle, from System.nanoTime.
+    private volatile long _idleSince = System.nanoTime();
+    // When the connection was last known to work: when it was returned or answered a heartbeat.
+    private volatile long _checkedAt = _idleSince;
+
+    PoolEntry(Connection value)
+    {
+        Value = value;
+    }
+
+    int getState()
+    {
+        return _state.get();
+    }
+
+    long getIdleSince()
+    {
+        return _idleSince;
+    }
+
+    long getCheckedAt()
+    {
+        return _checkedAt;
+    }
+
+    /// Takes the entry if it is idle.
+    boolean TryBorrow()
+    {
+        return _state.get() == IDLE && _state.compareAndSet(IDLE, BORROWED);
+    }
+
+    /// Makes a borrowed entry idle again. Returns false if it was not borrowed, for a connection returned twice.
+    boolean TryRelease()
+    {
+        var now = System.nanoTime();
+        if (!_state.compareAndSet(BORROWED, IDLE))
+            return false;
+
+        // The times only matter while the entry is idle, a borrower that takes it right away does not need them.
+        _idleSince = now;
+        _checkedAt = now;
+        return true;
+    }
+
+    /// Takes an idle entry for a health check, without it counting as idle time spent.
+    boolean TryReserve()
+    {
+        return _state.compareAndSet(IDLE, RESERVED);
+    }
+
+    /// Makes a reserved entry idle again after it passed its health check.
+    void Unreserve()
+    {
+        _checkedAt = System.nanoTime();
+        _state.compareAndSet(RESERVED, IDLE);
+    }
+
+    /// Takes the entry out of the pool if it is idle, so that no borrower can take it any more.
+    boolean TryRemove()
+    {
+        return _state.compareAndSet(IDLE, REMOVED);
+    }
+
+    /// Takes a borrowed or reserved entry out of the pool. Returns false if it was neither.
+    boolean TryDiscard(int from)
+    {
+        return _state.compareAndSet(from, REMOVED);
+    }
+}
@@ -0,0 +1,14 @@
+package tech.novoess.skytable4j;
+
+import java.time.Duration;
+
+/// <summary>Thrown if no connection of a <see cref="ConnectionPool"/> became available within the pool's maximum wait.</summary>
+public class PoolTimeoutException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+    PoolTimeoutException(Duration maxWait, int count, int waiting) {
+        super("No connection became available within " + maxWait + ". All " + count + " connections of the pool are borrowed and "
+                + waiting + " other borrowers are waiting.");
+    }
+}
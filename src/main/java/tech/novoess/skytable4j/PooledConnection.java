@@ -1,8 +1,10 @@
 package tech.novoess.skytable4j;
 
-import javafx.concurrent.Task;
 import tech.novoess.skytable4j.querying.Element;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
 /**
  * <summary>A pooled database connection over Skyhash/TCP.</summary>
  */
@@ -11,6 +13,8 @@ public class PooledConnection implements IConnection
     private ConnectionPool _pool;
     private Connection _connection;
     private ConnectionType _connectionType;
+    // The pool's entry for a pooled connection, null for a temporary one.
+    private PoolEntry _entry;
 
     PooledConnection(ConnectionPool pool, Connection connection, ConnectionType connectionType)
     {
@@ -19,33 +23,73 @@ public class PooledConnection implements IConnection
         _connectionType = connectionType;
     }
 
-    /// <summary>Dispose of the pooled connection, returning it to the pool or closing it if it was a temporary connection.</summary>
+    PooledConnection(ConnectionPool pool, PoolEntry entry)
+    {
+        this(pool, entry.Value, ConnectionType.Pooled);
+        _entry = entry;
+    }
+
+    /// <summary>Gets the entity that this connection is connected to.</summary>
+    public String getEntity()
+    {
+        return _connection.Entity;
+    }
+
+    /// <summary>
+    /// Dispose of the pooled connection, returning it to the pool or closing it if it was a temporary connection.
+    /// Disposing it again does nothing, the connection may already have been handed to another borrower.
+    /// </summary>
     public void Dispose()
     {
+        var connection = _connection;
+        var entry = _entry;
+        if (connection == null)
+            return;
+        _connection = null;
+        _entry = null;
+
         if (_connectionType == ConnectionType.Pooled)
-            _pool.Return(_connection);
+            _pool.Return(entry);
         else
-            _connection.Close();
+            connection.Close();
     }
 
     /// <summary>
     /// This function will create a GET <see cref="Query"/> and write it to the stream and read the response from the
     /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and try to return type T if successful.
+    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// </summary>
+    public SkyResult<Element> Get(String key) throws Exception
+    {
+        return _connection.Get(key);
+    }
+
+    /// <summary>
+    /// This function will create a GET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public <T> SkyResult<T> Get(String key)
+    public CompletableFuture<SkyResult<Element>> GetAsync(String key)
     {
-        return _connection.Get<T>(key);
+        return _connection.GetAsync(key);
     }
 
     /// <summary>
-    /// This function will create a GET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
+    /// This function will create a GET <see cref="Query"/> and write it to the stream and read the response from the
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and try to return type T if successful.
     /// </summary>
-    public <T> SkyResult<T> GetAsync(String key)
+    public <T extends Skyhash> SkyResult<T> Get(String key, Supplier<T> factory) throws Exception
     {
-        return _connection.GetAsync(key);
+        return _connection.Get(key, factory);
+    }
+
+    /// <summary>
+    /// This function will create a GET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with the response turned into type T if it could be read.
+    /// </summary>
+    public <T extends Skyhash> CompletableFuture<SkyResult<T>> GetAsync(String key, Supplier<T> factory)
+    {
+        return _connection.GetAsync(key, factory);
     }
 
     /// <summary>
@@ -53,17 +97,16 @@ public class PooledConnection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> Set(String key, String value)
+    public SkyResult<Element> Set(String key, String value) throws Exception
     {
         return _connection.Set(key, value);
     }
 
     /// <summary>
-    /// This function will create a SET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a SET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public Task<SkyResult<Element>> SetAsync(String key, String value)
+    public CompletableFuture<SkyResult<Element>> SetAsync(String key, String value)
     {
         return _connection.SetAsync(key, value);
     }
@@ -73,17 +116,16 @@ public class PooledConnection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> Set(String key, Skyhash value)
+    public SkyResult<Element> Set(String key, Skyhash value) throws Exception
     {
         return _connection.Set(key, value);
     }
 
     /// <summary>
-    /// This function will create a SET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a SET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public Task<SkyResult<Element>> SetAsync(String key, Skyhash value)
+    public CompletableFuture<SkyResult<Element>> SetAsync(String key, Skyhash value)
     {
         return _connection.SetAsync(key, value);
     }
@@ -93,17 +135,16 @@ public class PooledConnection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> Delete(String key)
+    public SkyResult<Element> Delete(String key) throws Exception
     {
         return _connection.Delete(key);
     }
 
     /// <summary>
-    /// This function will create a DEL <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a DEL <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public Task<SkyResult<Element>> DeleteAsync(String key)
+    public CompletableFuture<SkyResult<Element>> DeleteAsync(String key)
     {
         return _connection.DeleteAsync(key);
     }
@@ -113,17 +154,16 @@ public class PooledConnection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> USet(String key, String value)
+    public SkyResult<Element> USet(String key, String value) throws Exception
     {
         return _connection.USet(key, value);
     }
 
     /// <summary>
-    /// This function will create an USET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create an USET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public Task<SkyResult<Element>> USetAsync(String key, String value)
+    public CompletableFuture<SkyResult<Element>> USetAsync(String key, String value)
     {
         return _connection.USetAsync(key, value);
     }
@@ -133,17 +173,16 @@ public class PooledConnection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> USet(String key, Skyhash value)
+    public SkyResult<Element> USet(String key, Skyhash value) throws Exception
     {
         return _connection.USet(key, value);
     }
 
     /// <summary>
-    /// This function will create an USET <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create an USET <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public Task<SkyResult<Element>> USetAsync(String key, Skyhash value)
+    public CompletableFuture<SkyResult<Element>> USetAsync(String key, Skyhash value)
     {
         return _connection.USetAsync(key, value);
     }
@@ -153,17 +192,16 @@ public class PooledConnection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and return an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public SkyResult<Element> Pop(String key)
+    public SkyResult<Element> Pop(String key) throws Exception
     {
         return _connection.Pop(key);
     }
 
     /// <summary>
-    /// This function will create a POP <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and return an appropriate variant of <see cref="Element"/>.
+    /// This function will create a POP <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with an appropriate variant of <see cref="Element"/>.
     /// </summary>
-    public Task<SkyResult<Element>> PopAsync(String key)
+    public CompletableFuture<SkyResult<Element>> PopAsync(String key)
     {
         return _connection.PopAsync(key);
     }
@@ -173,18 +211,17 @@ public class PooledConnection implements IConnection
     /// server. It will then determine if the returned response is complete, incomplete
     /// or invalid and try to return type T if successful.
     /// </summary>
-    public <T> SkyResult<T> Pop(String key)
+    public <T extends Skyhash> SkyResult<T> Pop(String key, Supplier<T> factory) throws Exception
     {
-        return _connection.Pop(key);
+        return _connection.Pop(key, factory);
     }
 
     /// <summary>
-    /// This function will create a POP <see cref="Query"/> and write it to the stream and read the response asynchronously from the
-    /// server. It will then determine if the returned response is complete, incomplete
-    /// or invalid and try to return type T if successful.
+    /// This function will create a POP <see cref="Query"/> and write it to the stream without waiting for the responses of
+    /// earlier queries. The returned future is completed once the server has answered, with the response turned into type T if it could be read.
     /// </summary>
-    public <T> Task<SkyResult<T>> PopAsync(String key)
+    public <T extends Skyhash> CompletableFuture<SkyResult<T>> PopAsync(String key, Supplier<T> factory)
     {
-        return  _connection.PopAsync(key);
+        return _connection.PopAsync(key, factory);
     }
 }
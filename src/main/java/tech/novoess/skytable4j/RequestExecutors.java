@@ -0,0 +1,46 @@
+package tech.novoess.skytable4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <summary>
+ * Executors for running blocking client calls, one task per request. On Java 21 and later the multi-release jar
+ * replaces this class with one that starts a virtual thread per task; the blocking paths of {@link Connection} and
+ * {@link ConnectionPool} only park on locks and futures, so they never pin the carrier thread.
+ * </summary>
+ */
+public final class RequestExecutors
+{
+    private RequestExecutors()
+    {
+    }
+
+    /// <summary>Returns whether {@link #PerRequest()} runs every task on its own virtual thread.</summary>
+    public static boolean IsVirtual()
+    {
+        return false;
+    }
+
+    /// Returns whether the calling thread is a virtual thread. This runtime has none.
+    static boolean OnVirtualThread()
+    {
+        return false;
+    }
+
+    /// <summary>
+    /// Creates an executor that starts a thread for every request. This runtime has no virtual threads, so idle
+    /// platform threads are cached and reused instead.
+    /// </summary>
+    public static ExecutorService PerRequest()
+    {
+        var count = new AtomicInteger();
+        return Executors.newCachedThreadPool(task ->
+        {
+            var thread = new Thread(task, "skytable4j-request-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
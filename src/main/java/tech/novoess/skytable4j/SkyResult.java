@@ -7,32 +7,43 @@ import tech.novoess.skytable4j.parsing.ParseError;
  */
 public class SkyResult<T>
 {
+    private static final SkyResult<?>[] ERRORS = new SkyResult<?>[ParseError.values().length];
+
+    static
+    {
+        // Errors carry no item, so a single instance per error can be shared. NotEnough alone is returned on every partial read.
+        for (var error : ParseError.values())
+            ERRORS[error.ordinal()] = new SkyResult<Object>(error);
+    }
+
     /**
      * <summary>The item of type {@link T} if the result is Ok.</summary>
      */
-    public T Item;
+    public final T Item;
     /**
      * <summary>The error in case the result is an Error.</summary>
      */
-    public ParseError Error;
+    public final ParseError Error;
     /**
      * <summary>True if the result was ok. You can use the Item.</summary>
      */
-    public boolean IsOk;
+    public final boolean IsOk;
     /**
      * <summary>True if the query failed in any way. Check the Error to learn more.</summary>
      */
-    public boolean IsError;
+    public final boolean IsError;
 
     private SkyResult(T item)
     {
         Item = item;
+        Error = null;
         IsOk = true;
         IsError = false;
     }
 
     private SkyResult(ParseError error)
     {
+        Item = null;
         Error = error;
         IsOk = false;
         IsError = true;
@@ -43,8 +54,14 @@ public class SkyResult<T>
         return new SkyResult<>(item);
     }
 
+    @SuppressWarnings("unchecked")
+    public static <U> SkyResult<U> Err(ParseError error)
+    {
+        return (SkyResult<U>) ERRORS[error.ordinal()];
+    }
+
     public static <U> SkyResult<U> Err(ParseError error, U item)
     {
-        return new SkyResult<>(error);
+        return Err(error);
     }
 }
@@ -16,9 +16,9 @@ import tech.novoess.skytable4j.querying.ElementType;
             switch(element.Type)
             {
                 case ElementType.String:
-                    return JsonSerializer.Deserialize(element.Object);
+                    return JsonSerializer.Deserialize(element.AsString());
                 case ElementType.BinaryString:
-                    var bytes = (element.Object as List<Byte>).ToArray();
+                    var bytes = element.AsBytes().ToArray();
                     return JsonSerializer.Deserialize(bytes);
                 default:
                     return new T();
@@ -0,0 +1,174 @@
+package tech.novoess.skytable4j.buffers;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * <summary>
+ * The buffers shared by every connection, encoder and parser. Sizes are rounded up to a size class, powers of two and
+ * the halfway steps between them from 512 bytes to 1 MiB, so a returned buffer fits the next request of its class.
+ * Each platform thread keeps a few free buffers of every class up to 64 KiB for itself; the rest go to a lock-free
+ * free list per class, which holds at most a few megabytes of each. Virtual threads come and go with the requests,
+ * so they skip the thread cache and use the free lists directly. Larger requests are allocated and left to the garbage collector.
+ * Heap arrays, heap buffers and direct buffers are pooled separately.
+ * </summary>
+ */
+public final class BufferPool
+{
+    private static final int[] SIZES = Sizes(512, 1024 * 1024);
+    // Free buffers a thread keeps of every class before handing them to the free list.
+    private static final int THREAD_CACHE = 4;
+    // Larger buffers are too costly to leave behind with a thread that ends, they go straight to the free lists.
+    private static final int THREAD_CACHE_SIZES = IndexOf(64 * 1024) + 1;
+    // The free list of a class holds at most this many bytes, or THREAD_CACHE buffers if those are larger.
+    private static final int FREE_BYTES = 4 * 1024 * 1024;
+
+    private static final Classes<byte[]> ARRAYS = new Classes<>(byte[]::new, array -> array.length);
+    private static final Classes<ByteBuffer> HEAP = new Classes<>(ByteBuffer::allocate, ByteBuffer::capacity);
+    private static final Classes<ByteBuffer> DIRECT = new Classes<>(ByteBuffer::allocateDirect, ByteBuffer::capacity);
+
+    private BufferPool()
+    {
+    }
+
+    /// <summary>Returns the size class a request for the given capacity is rounded up to, or the capacity itself if it is too large to be pooled.</summary>
+    public static int SizeOf(int capacity)
+    {
+        var index = IndexOf(capacity);
+        return index < 0 ? capacity : SIZES[index];
+    }
+
+    /// <summary>Takes an array of at least the given length. Its contents are undefined.</summary>
+    public static byte[] TakeArray(int capacity)
+    {
+        return ARRAYS.Take(capacity);
+    }
+
+    /// <summary>Takes a cleared heap or direct buffer with at least the given capacity.</summary>
+    public static ByteBuffer TakeBuffer(int capacity, boolean direct)
+    {
+        return (direct ? DIRECT : HEAP).Take(capacity).clear();
+    }
+
+    /// <summary>Returns an array to the pool. It must not be used afterwards.</summary>
+    public static void Give(byte[] array)
+    {
+        ARRAYS.Give(array);
+    }
+
+    /// <summary>
+    /// Returns a buffer to the pool. It must not be used afterwards, and neither must any view of it, so a buffer that
+    /// values were handed out from cannot be returned.
+    /// </summary>
+    public static void Give(ByteBuffer buffer)
+    {
+        (buffer.isDirect() ? DIRECT : HEAP).Give(buffer);
+    }
+
+    private static int IndexOf(int capacity)
+    {
+        if (capacity > SIZES[SIZES.length - 1])
+            return -1;
+
+        var index = Arrays.binarySearch(SIZES, capacity);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private static int[] Sizes(int smallest, int largest)
+    {
+        var count = 2 * Integer.numberOfTrailingZeros(largest / smallest) + 1;
+        var sizes = new int[count];
+        for (int i = 0, size = smallest; i < count; i += 2, size *= 2)
+        {
+            sizes[i] = size;
+            if (i + 1 < count)
+                sizes[i + 1] = size + size / 2;
+        }
+        return sizes;
+    }
+
+    /// The thread caches and free lists of one kind of buffer.
+    private static final class Classes<T>
+    {
+        private final IntFunction<T> _allocate;
+        private final ToIntFunction<T> _capacity;
+        private final ConcurrentLinkedQueue<T>[] _free;
+        private final AtomicInteger[] _freeCounts;
+        private final ThreadLocal<Object[][]> _cache;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Classes(IntFunction<T> allocate, ToIntFunction<T> capacity)
+        {
+            _allocate = allocate;
+            _capacity = capacity;
+            _free = new ConcurrentLinkedQueue[SIZES.length];
+            _freeCounts = new AtomicInteger[SIZES.length];
+            for (int i = 0; i < SIZES.length; i++)
+            {
+                _free[i] = new ConcurrentLinkedQueue<>();
+                _freeCounts[i] = new AtomicInteger();
+            }
+            _cache = ThreadLocal.withInitial(() -> new Object[THREAD_CACHE_SIZES][THREAD_CACHE]);
+        }
+
+        @SuppressWarnings("unchecked")
+        T Take(int capacity)
+        {
+            var index = IndexOf(capacity);
+            if (index < 0)
+                return _allocate.apply(capacity);
+
+            if (index < THREAD_CACHE_SIZES && !CurrentThread.IsVirtual())
+            {
+                var cached = _cache.get()[index];
+                for (int i = cached.length - 1; i >= 0; i--)
+                {
+                    if (cached[i] != null)
+                    {
+                        var buffer = (T) cached[i];
+                        cached[i] = null;
+                        return buffer;
+                    }
+                }
+            }
+
+            var buffer = _free[index].poll();
+            if (buffer == null)
+                return _allocate.apply(SIZES[index]);
+
+            _freeCounts[index].decrementAndGet();
+            return buffer;
+        }
+
+        void Give(T buffer)
+        {
+            var capacity = _capacity.applyAsInt(buffer);
+            var index = IndexOf(capacity);
+            // Only buffers that were allocated for a class go back to it.
+            if (index < 0 || SIZES[index] != capacity)
+                return;
+
+            if (index < THREAD_CACHE_SIZES && !CurrentThread.IsVirtual())
+            {
+                var cached = _cache.get()[index];
+                for (int i = 0; i < cached.length; i++)
+                {
+                    if (cached[i] == null)
+                    {
+                        cached[i] = buffer;
+                        return;
+                    }
+                }
+            }
+
+            if (_freeCounts[index].incrementAndGet() <= Math.max(THREAD_CACHE, FREE_BYTES / capacity))
+                _free[index].offer(buffer);
+            else
+                _freeCounts[index].decrementAndGet();
+        }
+    }
+}
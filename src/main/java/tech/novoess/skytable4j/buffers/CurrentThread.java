@@ -0,0 +1,20 @@
+package tech.novoess.skytable4j.buffers;
+
+/**
+ * <summary>
+ * What the pool needs to know about the calling thread. On Java 21 and later the multi-release jar replaces this class
+ * with one that recognises virtual threads.
+ * </summary>
+ */
+final class CurrentThread
+{
+    private CurrentThread()
+    {
+    }
+
+    /// Returns whether the calling thread is a virtual thread. This runtime has none.
+    static boolean IsVirtual()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,135 @@
+package tech.novoess.skytable4j.parsing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <summary>
+ * Scans the parser's buffer for line feeds and parses the ASCII digits of sizes and unsigned integers.
+ * Every member of a flat or typed array carries its own size line, so these two loops run once per element.
+ * The implementation is picked once at startup: by default eight bytes are processed at a time in a long (SWAR),
+ * setting the system property `skytable4j.scanner` to `scalar` selects the plain byte-by-byte loops instead.
+ * All indexes are absolute, the buffer's position and limit are left untouched.
+ * </summary>
+ */
+abstract class ByteScanner
+{
+    /// The most digits {@link #ParseDigits} accepts; sixteen digits cannot overflow a long.
+    static final int MAX_DIGITS = 16;
+
+    static final ByteScanner INSTANCE = "scalar".equalsIgnoreCase(System.getProperty("skytable4j.scanner"))
+            ? new Scalar()
+            : new Swar();
+
+    /// Returns the index of the first occurrence of `value` in [from, to), or -1 if there is none.
+    abstract int IndexOf(ByteBuffer buffer, int from, int to, byte value);
+
+    /// Returns the number spelled by the 1 to {@link #MAX_DIGITS} ASCII digits in [from, to), or -1 if any byte is not a digit.
+    abstract long ParseDigits(ByteBuffer buffer, int from, int to);
+
+    private static final class Scalar extends ByteScanner
+    {
+        @Override
+        int IndexOf(ByteBuffer buffer, int from, int to, byte value)
+        {
+            for (int i = from; i < to; i++)
+            {
+                if (buffer.get(i) == value)
+                    return i;
+            }
+
+            return -1;
+        }
+
+        @Override
+        long ParseDigits(ByteBuffer buffer, int from, int to)
+        {
+            long value = 0;
+            for (int i = from; i < to; i++)
+            {
+                byte digit = buffer.get(i);
+                if (digit < '0' || digit > '9')
+                    return -1;
+
+                value = value * 10 + (digit - '0');
+            }
+
+            return value;
+        }
+    }
+
+    private static final class Swar extends ByteScanner
+    {
+        private static final long ONES   = 0x0101010101010101L;
+        private static final long HIGHS  = 0x8080808080808080L;
+        private static final long ZEROS  = 0x3030303030303030L;  // '0' in every byte
+        private static final long NIBBLE = 0xF0F0F0F0F0F0F0F0L;
+        private static final long SIXES  = 0x0606060606060606L;
+
+        private final Scalar _scalar = new Scalar();
+
+        @Override
+        int IndexOf(ByteBuffer buffer, int from, int to, byte value)
+        {
+            var pattern = ONES * (value & 0xFF);
+            int i = from;
+            for (; i + Long.BYTES <= to; i += Long.BYTES)
+            {
+                // Bytes equal to the value become zero, and the lowest zero byte gets its high bit set.
+                var word = Load(buffer, i) ^ pattern;
+                var found = (word - ONES) & ~word & HIGHS;
+                if (found != 0)
+                    return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+
+            return _scalar.IndexOf(buffer, i, to, value);
+        }
+
+        @Override
+        long ParseDigits(ByteBuffer buffer, int from, int to)
+        {
+            int count = to - from;
+            if (count <= Long.BYTES)
+            {
+                if (from + Long.BYTES <= buffer.limit())
+                    return ParseEight(Load(buffer, from), count);
+                if (to >= Long.BYTES)
+                    return ParseEight(Load(buffer, to - Long.BYTES) >>> (Long.BYTES - count) * 8, count);
+
+                return _scalar.ParseDigits(buffer, from, to);
+            }
+
+            // The leading digits start the first word, the trailing eight fill the second one.
+            var high = ParseEight(Load(buffer, from), count - Long.BYTES);
+            var low = ParseEight(Load(buffer, to - Long.BYTES), Long.BYTES);
+            if (high < 0 || low < 0)
+                return -1;
+
+            return high * 100_000_000L + low;
+        }
+
+        /// Parses the first `count` bytes of a little endian word, the first byte being the most significant digit.
+        private static long ParseEight(long word, int count)
+        {
+            var mask = count == Long.BYTES ? -1L : (1L << count * 8) - 1;
+            word &= mask;
+
+            // Every byte has to be 0x30 to 0x39: its high nibble is 3, and stays 3 after adding 6.
+            var zeros = ZEROS & mask;
+            if ((word & NIBBLE & mask) != zeros || ((word + (SIXES & mask)) & NIBBLE & mask) != zeros)
+                return -1;
+
+            // Pad with leading zero digits to exactly eight, then combine pairs, quads and finally both halves.
+            word = (word - zeros) << (Long.BYTES - count) * 8;
+            word = word * 10 + (word >>> 8);
+            return ((word & 0x000000FF000000FFL) * (100 + (1_000_000L << 32))
+                    + ((word >>> 16) & 0x000000FF000000FFL) * (1 + (10_000L << 32))) >>> 32;
+        }
+
+        private static long Load(ByteBuffer buffer, int index)
+        {
+            var word = buffer.getLong(index);
+            return buffer.order() == ByteOrder.LITTLE_ENDIAN ? word : Long.reverseBytes(word);
+        }
+    }
+}
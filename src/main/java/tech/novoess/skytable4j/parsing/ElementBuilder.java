@@ -0,0 +1,134 @@
+package tech.novoess.skytable4j.parsing;
+
+import tech.novoess.skytable4j.querying.ArrayType;
+import tech.novoess.skytable4j.querying.ByteSlice;
+import tech.novoess.skytable4j.querying.Element;
+import tech.novoess.skytable4j.querying.ElementType;
+import tech.novoess.skytable4j.querying.ResponseCode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * <summary>Builds {@link Element}s out of the events of the parser, one element per datagroup.</summary>
+ */
+final class ElementBuilder implements IElementVisitor
+{
+    private final Deque<PartialArray> _stack = new ArrayDeque<>();
+    private List<Element> _datagroups = new ArrayList<>(1);
+
+    @Override
+    public void OnArrayStart(ArrayType type, int size)
+    {
+        _stack.push(new PartialArray(type, size));
+    }
+
+    @Override
+    public void OnString(ByteSlice value)
+    {
+        var top = _stack.peek();
+        if (top == null || top.Type == ArrayType.Recursive)
+            Add(new Element(value, ElementType.String));
+        else
+            Add(value.ToUtf8String());
+    }
+
+    @Override
+    public void OnU64(long value)
+    {
+        Add(new Element(value));
+    }
+
+    @Override
+    public void OnBinary(ByteSlice value)
+    {
+        var top = _stack.peek();
+        if (top == null || top.Type == ArrayType.Recursive)
+            Add(new Element(value, ElementType.BinaryString));
+        else
+            Add(value);
+    }
+
+    @Override
+    public void OnRespCode(ResponseCode code)
+    {
+        Add(Element.Of(code));
+    }
+
+    @Override
+    public void OnNull()
+    {
+        Add(null);
+    }
+
+    @Override
+    public void OnArrayEnd()
+    {
+        var array = _stack.pop();
+        Add(new Element(array.Items, ElementTypeOf(array.Type)));
+    }
+
+    private static ElementType ElementTypeOf(ArrayType type)
+    {
+        switch (type)
+        {
+            case Recursive:
+                return ElementType.Array;
+            case String:
+                return ElementType.StringArray;
+            case BinaryString:
+                return ElementType.BinaryArray;
+            default:
+                return ElementType.FlatArray;
+        }
+    }
+
+    /// Returns the element of a completed single-datagroup response and starts over for the next one.
+    Element TakeSingle()
+    {
+        var element = _datagroups.get(0);
+        _datagroups.clear();
+        return element;
+    }
+
+    /// Returns the elements of the completed response and starts over for the next one.
+    List<Element> TakeDatagroups()
+    {
+        var datagroups = _datagroups;
+        _datagroups = new ArrayList<>(1);
+        return datagroups;
+    }
+
+    void Reset()
+    {
+        _stack.clear();
+        _datagroups.clear();
+    }
+
+    private void Add(Object value)
+    {
+        var top = _stack.peek();
+        if (top == null)
+            _datagroups.add((Element) value);
+        else
+            top.Items.add(value);
+    }
+
+    /**
+     * <summary>An array whose header has been read but whose members have not all arrived yet.</summary>
+     */
+    private static final class PartialArray
+    {
+        final ArrayType Type;
+        final List<Object> Items;
+
+        PartialArray(ArrayType type, int size)
+        {
+            Type = type;
+            // The size comes off the wire, don't trust it with the initial allocation.
+            Items = new ArrayList<>(Math.min(size, 1024));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package tech.novoess.skytable4j.parsing;
+
+import tech.novoess.skytable4j.querying.ArrayType;
+import tech.novoess.skytable4j.querying.ByteSlice;
+import tech.novoess.skytable4j.querying.ResponseCode;
+
+/**
+ * <summary>
+ * Receives the elements of a response one at a time, as the {@link Parser} reads them.
+ * Nothing is materialised on the way, so responses of any size can be processed with bounded memory.
+ * The {@link ByteSlice} passed to {@link #OnString} and {@link #OnBinary} points into the parser's buffer and is only
+ * valid for the duration of the call; copy it with {@link ByteSlice#ToArray()} if it has to be kept.
+ * </summary>
+ */
+public interface IElementVisitor
+{
+    /**
+     * <summary>An array starts. Its members follow, then {@link #OnArrayEnd()}.</summary>
+     */
+    void OnArrayStart(ArrayType type, int size);
+
+    /**
+     * <summary>A string, either on its own or as a member of a flat or typed string array.</summary>
+     */
+    void OnString(ByteSlice value);
+
+    /**
+     * <summary>An unsigned integer. Use {@link Long#toUnsignedString(long)} for values above {@link Long#MAX_VALUE}.</summary>
+     */
+    void OnU64(long value);
+
+    /**
+     * <summary>A binary string, either on its own or as a member of a typed binary array.</summary>
+     */
+    void OnBinary(ByteSlice value);
+
+    /**
+     * <summary>A response code.</summary>
+     */
+    void OnRespCode(ResponseCode code);
+
+    /**
+     * <summary>A null member of a typed array.</summary>
+     */
+    void OnNull();
+
+    /**
+     * <summary>The innermost open array ends.</summary>
+     */
+    void OnArrayEnd();
+}
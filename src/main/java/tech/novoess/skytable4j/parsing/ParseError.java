@@ -35,5 +35,12 @@ public enum ParseError {
      /**
       * <summary>The query is empty.</summary>
       */
-    Empty
+    Empty,
+     /**
+      * <summary>
+        The server did not answer before the deadline of the query, or the caller cancelled it.
+        Its response is still read and dropped when it arrives, so the connection stays in step with the server.
+        </summary>
+      */
+    Timeout
 }
@@ -1,489 +1,781 @@
 package tech.novoess.skytable4j.parsing;
 
-import javafx.util.Pair;
 import tech.novoess.skytable4j.SkyResult;
+import tech.novoess.skytable4j.buffers.BufferPool;
+import tech.novoess.skytable4j.querying.ArrayType;
+import tech.novoess.skytable4j.querying.ByteSlice;
 import tech.novoess.skytable4j.querying.Element;
-
+import tech.novoess.skytable4j.querying.ResponseCode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
-import static com.sun.org.apache.xml.internal.serialize.OutputFormat.Defaults.Encoding;
-import static java.lang.System.in;
-import static jdk.vm.ci.meta.JavaKind.Char;
-
 /**
- * <summary>A parser that can parse the packets sent by Skytable.</summary>
+ * <summary>
+ * A parser that can parse the packets sent by Skytable.
+ * The parser is resumable: bytes are handed to it with {@link #Feed} as they arrive and every call to {@link #Parse}
+ * continues from where the previous one stopped. Completed elements and partially filled arrays are kept between
+ * calls, so each byte of a response is only scanned once no matter how many reads it takes to receive it.
+ * All received bytes live in a single growable {@link ByteBuffer} that is read by index, nothing is boxed or copied
+ * until a value is handed out. Large strings and binary strings are handed out as {@link ByteSlice} views into that
+ * buffer; a buffer that is viewed is replaced instead of being reused so the views stay valid. Buffers are borrowed
+ * from the {@link BufferPool} and sized to the responses seen recently, so a single large response does not keep a
+ * large buffer around for good.
+ * Internally the parser emits events to an {@link IElementVisitor}; {@link #Parse()} builds elements out of them while
+ * {@link #Parse(IElementVisitor)} streams them to the caller.
+ * </summary>
  */
 public class Parser {
     // SKYHASH protocol constants
-    private final byte SKYHASH_HEADER       = 42;  // *
-    private final byte SKYHASH_LINEFEED     = 10;  // \n
-    private final byte SKYHASH_STRING       = 43;  // +
-    private final byte SKYHASH_U64          = 58;  // :
-    private final byte SKYHASH_ARRAY        = 38;  // &
-    private final byte SKYHASH_RESPCODE     = 33;  // !
-    private final byte SKYHASH_FLATARRAY    = 95;  // _
-    private final byte SKYHASH_BINARYSTRING = 63;  // ?
-    private final byte SKYHASH_TYPEDARRAY   = 64;  // @
-
+    private static final byte SKYHASH_HEADER       = 42;  // *
+    private static final byte SKYHASH_LINEFEED     = 10;  // \n
+    private static final byte SKYHASH_STRING       = 43;  // +
+    private static final byte SKYHASH_U64          = 58;  // :
+    private static final byte SKYHASH_ARRAY        = 38;  // &
+    private static final byte SKYHASH_RESPCODE     = 33;  // !
+    private static final byte SKYHASH_FLATARRAY    = 95;  // _
+    private static final byte SKYHASH_BINARYSTRING = 63;  // ?
+    private static final byte SKYHASH_TYPEDARRAY   = 64;  // @
+    private static final byte SKYHASH_NULL         = 0;   // \0
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final int MIN_READ = 1024;
+    // Values at least this long are viewed in place, smaller ones are cheaper to copy than to pin the buffer for.
+    private static final int VIEW_THRESHOLD = 1024;
+    private static final ByteScanner SCANNER = ByteScanner.INSTANCE;
+    // An emptied buffer this many times larger than the recent responses is swapped for a smaller one.
+    private static final int SHRINK_FACTOR = 4;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final boolean _direct;
+    private final int _capacity;
+    private ByteBuffer _buffer;
+    private boolean _shared;
+    // A maximum of the recent response sizes that decays with every response.
+    private int _recentSize;
+    private final Deque<PartialArray> _stack;
+    private final ElementBuilder _builder;
+    private int _datagroupsRead;
     private int _cursor;
-    private final List<Byte> _buffer;
+    private int _needed;
+    private int _datagroupCount;
+    private int _maxFrameSize;
 
     /**
      * <summary>Create a parser that can parse the packets sent by Skytable.</summary>
      */
-    public Parser(List<Byte> buffer)
+    public Parser()
+    {
+        this(DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * <summary>Create a parser with a heap buffer of the given initial capacity.</summary>
+     */
+    public Parser(int capacity)
     {
+        this(capacity, false);
+    }
+
+    /**
+     * <summary>Create a parser with the given initial capacity. A direct buffer lets channels read into it without an intermediate copy.</summary>
+     */
+    public Parser(int capacity, boolean direct)
+    {
+        _direct = direct;
+        _capacity = capacity;
+        _buffer = Allocate(capacity);
+        _stack = new ArrayDeque<>();
+        _builder = new ElementBuilder();
         _cursor = 0;
-        _buffer = buffer;
+        _needed = 0;
+        _datagroupCount = -1;
+        _maxFrameSize = Integer.MAX_VALUE;
     }
 
     /**
-     * <summary>Parse the response. Returns a tuple containing a <see cref="SkyResult&lt;Response&gt;"/> and an integer that contains the cursor's position in the buffer.</summary>
+     * <summary>
+     * Set the largest number of bytes that a response, or the value being handed to a visitor, may take up in the
+     * buffer. {@link #ReadFrom} throws once one needs more, since the parser cannot skip it and stay in step with the
+     * stream. Unlimited by default.
+     * </summary>
      */
-    public Pair<SkyResult<Element>, Integer> Parse() throws ClassNotFoundException {
-        var numberOfQueries = ParseMetaframeGetDatagroupCount();
-        if (numberOfQueries.IsError)
-            return new Pair<>(SkyResult.Err(numberOfQueries.Error), _cursor);
-        if (numberOfQueries.Item == 0)
-            return new Pair<>(SkyResult.Err(ParseError.BadPacket), _cursor);
-
-        if (numberOfQueries.Item == 1)
-        {
-            var result = ParseNextElement();
-            if (result.IsError)
-                return new Pair<>(SkyResult.Err(result.Error), 0);
+    public void setMaxFrameSize(int maxFrameSize)
+    {
+        _maxFrameSize = maxFrameSize;
+    }
 
-            // No need to check result since we pass in true here. Cannot be an Error.
-            if (WillCursorGiveChar((char)SKYHASH_HEADER, true).Item)
-            {
-                return new Pair<>(result, _cursor);
-            }
+    /**
+     * <summary>Returns the largest number of bytes a response may take up in the buffer.</summary>
+     */
+    public int getMaxFrameSize()
+    {
+        return _maxFrameSize;
+    }
 
-            return new Pair<>(SkyResult.Err(ParseError.UnexpectedByte), _cursor);
-        }
+    /**
+     * <summary>Append bytes received from the server to the parser's buffer.</summary>
+     */
+    public void Feed(byte[] bytes, int offset, int count)
+    {
+        EnsureRemaining(count);
+        _buffer.put(bytes, offset, count);
+    }
 
-        throw new ClassNotFoundException("Pipelined queries are not supported yet.");
+    /**
+     * <summary>Append the remaining bytes of the given buffer to the parser's buffer.</summary>
+     */
+    public void Feed(ByteBuffer bytes)
+    {
+        EnsureRemaining(bytes.remaining());
+        _buffer.put(bytes);
     }
 
-        private SkyResult<Element> ParseNextElement()
-        {
-            if (_buffer.size() < _cursor)
-                return SkyResult.Err(ParseError.NotEnough);
+    /**
+     * <summary>
+     * Read from the channel straight into the parser's buffer. The buffer is grown up front when the parser already
+     * knows that the response it is working on needs more room, so large values arrive in as few reads as possible.
+     * Returns the number of bytes read, or -1 at the end of the stream.
+     * </summary>
+     */
+    public int ReadFrom(ReadableByteChannel channel) throws IOException
+    {
+        if (Math.max(_needed, _buffer.position()) > _maxFrameSize)
+            throw new IOException("A response is larger than the maximum frame size of " + _maxFrameSize + " bytes.");
+        EnsureRemaining(Math.max(MIN_READ, _needed - _buffer.position()));
+        return channel.read(_buffer);
+    }
 
-            var tsymbol = _buffer.get(_cursor++);
-            switch (tsymbol)
-            {
-                case SKYHASH_STRING:
-                    var str = ParseNextString();
-                    if (str.IsError)
-                        return SkyResult.Err(str.Error);
-                    return SkyResult.Ok(new Element(str.Item));
-                case SKYHASH_U64:
-                    var u64 = ParseNextU64();
-                    if (u64.IsError)
-                        return SkyResult.Err(u64.Error);
-                    return SkyResult.Ok(new Element(u64.Item));
-                case SKYHASH_ARRAY:
-                    var array = ParseNextArray(); //TODO: Recursive
-                    if (array.IsError)
-                        return SkyResult<Element>.Err(array.Error);
-                    return SkyResult<Element>.Ok(new Element(array.Item));
-                case SKYHASH_RESPCODE:
-                    var respCode = ParseNextRespCode();
-                    if (respCode.IsError)
-                        return SkyResult<Element>.Err(respCode.Error);
-                    return SkyResult<Element>.Ok(new Element(respCode.Item));
-                case SKYHASH_FLATARRAY:
-                    var flatArray = ParseNextFlatArray();
-                    if (flatArray.IsError)
-                        return SkyResult<Element>.Err(flatArray.Error);
-                    return SkyResult<Element>.Ok(new Element(flatArray.Item));
-                case SKYHASH_BINARYSTRING:
-                    var binaryString = ParseNextBinaryString();
-                    if (binaryString.IsError)
-                        return SkyResult<Element>.Err(binaryString.Error);
-                    return SkyResult<Element>.Ok(new Element(binaryString.Item));
-                case SKYHASH_TYPEDARRAY:
-                    // hmmm, a typed array; let's check the tsymbol
-                    if (_buffer.Count < _cursor)
-                        return SkyResult<Element>.Err(ParseError.NotEnough);
-
-                    // got tsymbol, let's skip it too
-                    var typed_tsymbol = _buffer[_cursor++];
-                    switch(typed_tsymbol)
-                    {
-                        case SKYHASH_STRING:
-                            var typedArrayStr = ParseNextTypedArrayStr();
-                            if (typedArrayStr.IsError)
-                                return SkyResult<Element>.Err(typedArrayStr.Error);
-                            return SkyResult<Element>.Ok(new Element(typedArrayStr.Item));
-                        case SKYHASH_BINARYSTRING:
-                            var typedArrayBin = ParseNextTypedArrayBin();
-                            if (typedArrayBin.IsError)
-                                return SkyResult<Element>.Err(typedArrayBin.Error);
-                            return SkyResult<Element>.Ok(new Element(typedArrayBin.Item));
-                        default:
-                            return SkyResult<Element>.Err(ParseError.UnknownDataType);
-                    }
-                default:
-                    throw new NotImplementedException($"The tsymbol '{tsymbol}' is not yet implemented.");
-            }
-        }
+    /**
+     * <summary>Returns the number of buffered bytes that have not been consumed by a completed response yet.</summary>
+     */
+    public int Buffered()
+    {
+        return _buffer.position();
+    }
 
-        private SkyResult<List<Element>> ParseNextArray()
-        {
-            var (startedAt, stoppedAt) = ReadLine();
-            var line = _buffer.GetRange(startedAt, stoppedAt - startedAt);
-            if (line.Count == 0)
-                return SkyResult<List<Element>>.Err(ParseError.NotEnough);
+    /**
+     * <summary>Discard all buffered bytes and any partially parsed response.</summary>
+     */
+    public void Reset()
+    {
+        if (_shared)
+            Detach(_buffer.position());
+        else
+            _buffer.clear();
+        _stack.clear();
+        _builder.Reset();
+        _datagroupsRead = 0;
+        _cursor = 0;
+        _needed = 0;
+        _datagroupCount = -1;
+    }
 
-            var size = ParseSize(line);
-            if (size.IsError)
-                return SkyResult<List<Element>>.Err(size.Error);
+    /**
+     * <summary>
+     * Discard all buffered bytes like {@link #Reset} and give the buffer back to the shared pool, for a parser that
+     * will not be fed for a while. It takes a new buffer once bytes arrive again.
+     * </summary>
+     */
+    public void Recycle()
+    {
+        Reset();
+        BufferPool.Give(_buffer);
+        _buffer = EMPTY;
+    }
 
-            var elements = new List<Element>(size.Item);
-            for (int i = 0; i < size.Item; i++)
+    /**
+     * <summary>
+     * Continue parsing the response to a single query. Returns {@link ParseError#NotEnough} if more bytes have to be
+     * fed before the response is complete; the progress made so far is kept. Once a response is complete its bytes are
+     * released from the buffer. Any other error discards the buffer since the parser cannot resynchronize with the
+     * stream. A response carrying more than one datagroup is a {@link ParseError#BadPacket}, use {@link #ParsePipeline}.
+     * </summary>
+     */
+    public SkyResult<Element> Parse()
+    {
+        // Most replies are a lone response code, recognise those without going through the general parser.
+        if (_datagroupCount < 0 && _cursor == 0)
+        {
+            var ack = ResponseCodeRecognizer.Match(_buffer, 0, _buffer.position());
+            if (ack != null)
             {
-                var result = ParseNextElement();
-                if (result.IsError)
-                    return SkyResult<List<Element>>.Err(result.Error);
-
-                elements.Add(result.Item);
+                _cursor = ResponseCodeRecognizer.FRAME_LENGTH;
+                Release();
+                _needed = 0;
+                Adapt(ResponseCodeRecognizer.FRAME_LENGTH);
+                return ack;
             }
-            return SkyResult<List<Element>>.Ok(elements);
         }
 
-        private SkyResult<List<string>> ParseNextFlatArray()
+        var packet = Parse(_builder);
+        if (packet.IsError)
+            return SkyResult.Err(packet.Error);
+        if (packet.Item != 1)
         {
-            var (startedAt, stoppedAt) = ReadLine();
-            var line = _buffer.GetRange(startedAt, stoppedAt - startedAt);
-            if (line.Count == 0)
-                return SkyResult<List<string>>.Err(ParseError.NotEnough);
+            _builder.Reset();
+            return SkyResult.Err(ParseError.BadPacket);
+        }
 
-            var size = ParseSize(line);
-            if (size.IsError)
-                return SkyResult<List<string>>.Err(size.Error);
+        return SkyResult.Ok(_builder.TakeSingle());
+    }
 
-            var elements = new List<string>(size.Item);
-            for (int i = 0; i < size.Item; i++)
-            {
-                if (_buffer.Count < _cursor)
-                    return SkyResult<List<string>>.Err(ParseError.NotEnough);
+    /**
+     * <summary>
+     * Continue parsing the response to a pipeline. The returned list holds one element per datagroup, in the order the
+     * queries were sent. Partial progress is kept across calls in the same way as {@link #Parse}.
+     * </summary>
+     */
+    public SkyResult<List<Element>> ParsePipeline()
+    {
+        var packet = Parse(_builder);
+        if (packet.IsError)
+            return SkyResult.Err(packet.Error);
 
-                // TODO: +, ?, !, : should be supported here. Not just +.
-                var tsymbol = _buffer[_cursor++];
-                if (tsymbol != SKYHASH_STRING)
-                    return SkyResult<List<string>>.Err(ParseError.UnknownDataType);
+        return SkyResult.Ok(_builder.TakeDatagroups());
+    }
 
-                var result = ParseNextString();
-                if (result.IsError)
-                    return SkyResult<List<string>>.Err(result.Error);
+    /**
+     * <summary>
+     * Continue parsing the response, handing every element to the visitor as soon as it has been read instead of
+     * building a tree. Bytes are released as soon as the visitor has seen them, so the buffer only ever holds the
+     * element currently being received. Returns the number of datagroups once the response is complete, and
+     * {@link ParseError#NotEnough} until then. The same visitor has to be passed until the response is complete.
+     * </summary>
+     */
+    public SkyResult<Integer> Parse(IElementVisitor visitor)
+    {
+        if (_buffer.position() == 0 && _datagroupCount < 0)
+            return SkyResult.Err(ParseError.Empty);
 
-                elements.Add(result.Item);
-            }
+        // Nothing we could do with the bytes we have has changed since the last attempt.
+        if (_buffer.position() < _needed)
+            return SkyResult.Err(ParseError.NotEnough);
 
-            return SkyResult<List<string>>.Ok(elements);
+        if (_datagroupCount < 0)
+        {
+            var numberOfQueries = ParseMetaframeGetDatagroupCount();
+            if (numberOfQueries.IsError)
+                return numberOfQueries.Error == ParseError.NotEnough
+                        ? SkyResult.Err(ParseError.NotEnough)
+                        : Fail(numberOfQueries.Error);
+            if (numberOfQueries.Item == 0)
+                return Fail(ParseError.BadPacket);
+
+            _datagroupCount = numberOfQueries.Item;
+            _datagroupsRead = 0;
         }
 
-        private SkyResult<List<string>> ParseNextTypedArrayStr()
+        while (true)
         {
-            var (startedAt, stoppedAt) = ReadLine();
-            var line = _buffer.GetRange(startedAt, stoppedAt - startedAt);
-            if (line.Count == 0)
-                return SkyResult<List<string>>.Err(ParseError.NotEnough);
-
-            // so we have a size chunk; let's get the size
-            var size = ParseSize(line);
-            if (size.IsError)
-                return SkyResult<List<string>>.Err(size.Error);
-
-            var elements = new List<string>(size.Item);
-            for (int i = 0; i < size.Item; i++)
+            var top = _stack.peek();
+            if (top != null && top.IsComplete())
             {
-                // no tsymbol, just elements and their sizes
-                var result = ParseNextStringNullcheck();
-                if (result.IsError)
-                    return SkyResult<List<string>>.Err(result.Error);
-                elements.Add(result.Item);
+                _stack.pop();
+                visitor.OnArrayEnd();
+                if (CompleteValue())
+                    return Complete();
+                continue;
             }
-            return SkyResult<List<string>>.Ok(elements);
-        }
 
-        private SkyResult<List<List<byte>>> ParseNextTypedArrayBin()
-        {
-            var (startedAt, stoppedAt) = ReadLine();
-            var line = _buffer.GetRange(startedAt, stoppedAt - startedAt);
-            if (line.Count == 0)
-                return SkyResult<List<List<byte>>>.Err(ParseError.NotEnough);
-
-            // so we have a size chunk; let's get the size
-            var size = ParseSize(line);
-            if (size.IsError)
-                return SkyResult<List<List<byte>>>.Err(size.Error);
-
-            var elements = new List<List<byte>>(size.Item);
-            for (int i = 0; i < size.Item; i++)
+            var mark = _cursor;
+            var next = top == null || top.Type == ArrayType.Recursive
+                    ? ParseNextElement(visitor)
+                    : ParseNextMember(top, visitor);
+
+            if (next.IsError)
             {
-                // no tsymbol, just elements and their sizes
-                var result = ParseNextBinaryStringNullcheck();
-                if (result.IsError)
-                    return SkyResult<List<List<byte>>>.Err(result.Error);
-                elements.Add(result.Item);
+                if (next.Error != ParseError.NotEnough)
+                    return Fail(next.Error);
+
+                // Roll back to the start of the element so that it is read in one piece on the next attempt.
+                _cursor = mark;
+                return SkyResult.Err(ParseError.NotEnough);
             }
-            return SkyResult<List<List<byte>>>.Ok(elements);
+
+            // An array header was read, its members follow.
+            if (!next.Item)
+                continue;
+
+            if (CompleteValue())
+                return Complete();
         }
+    }
 
-        private SkyResult<Long> ParseNextU64()
+    /// Count a value that has been handed to the visitor. Returns true once every datagroup of the packet has been read.
+    private boolean CompleteValue()
+    {
+        var top = _stack.peek();
+        if (top != null)
         {
-            var ourU64Chunk = GetNextElement();
-            if (ourU64Chunk.IsError)
-                return SkyResult.Err(ourU64Chunk.Error);
+            top.Count++;
+            return false;
+        }
 
-            var ourU64 = ParseU64(ourU64Chunk.Item);
-            if (ourU64.IsError)
-                return ourU64;
+        return ++_datagroupsRead == _datagroupCount;
+    }
 
-            var result = WillCursorGiveLineFeed();
-            if (result.IsOk && result.Item)
-            {
-                _cursor++;
-                return SkyResult<ulong>.Ok(ourU64.Item);
-            }
+    private SkyResult<Integer> Complete()
+    {
+        // No need to check result since we pass in true here. Cannot be an Error.
+        if (!WillCursorGiveChar(SKYHASH_HEADER, true).Item)
+            return Fail(ParseError.UnexpectedByte);
+
+        // Move whatever follows this response to the front of the buffer.
+        var size = _cursor;
+        Release();
+        _needed = 0;
+        _datagroupCount = -1;
+        Adapt(size);
+        return SkyResult.Ok(_datagroupsRead);
+    }
 
-            return SkyResult<ulong>.Err(ParseError.UnexpectedByte);
-        }
+    private <U> SkyResult<U> Fail(ParseError error)
+    {
+        Reset();
+        return SkyResult.Err(error);
+    }
 
-        private SkyResult<List<byte>> ReadUntil(int until)
-        {
-            if (_buffer.Count < _cursor + until)
-                return SkyResult<List<byte>>.Err(ParseError.NotEnough);
+    private <U> SkyResult<U> NotEnough(int needed)
+    {
+        _needed = needed;
+        return SkyResult.Err(ParseError.NotEnough);
+    }
 
-            var range = _buffer.GetRange(_cursor, until);
-            _cursor += until;
-            return SkyResult<List<byte>>.Ok(range);
-        }
+    /// Parse the next element with a tsymbol and hand it to the visitor.
+    /// Returns false if an array header was read, its members follow.
+    private SkyResult<Boolean> ParseNextElement(IElementVisitor visitor)
+    {
+        if (_buffer.position() <= _cursor)
+            return NotEnough(_cursor + 1);
 
-        private SkyResult<List<byte>> GetNextElement()
+        var retain = visitor == _builder;
+        var tsymbol = _buffer.get(_cursor++);
+        switch (tsymbol)
         {
-            var (startedAt, stoppedAt) = ReadLine();
-            var line = _buffer.GetRange(startedAt, stoppedAt - startedAt);
-            var size = ParseSize(line);
-            if (size.IsError)
-                return SkyResult.Err(size.Error, new Byte[]);
-            return ReadUntil(size.Item);
+            case SKYHASH_STRING:
+                // Decoded lazily, many values are passed on as they are.
+                var str = ParseNextBinaryString(retain);
+                if (str.IsError)
+                    return SkyResult.Err(str.Error);
+                visitor.OnString(str.Item);
+                return SkyResult.Ok(true);
+            case SKYHASH_U64:
+                var u64 = ParseNextU64();
+                if (u64.IsError)
+                    return SkyResult.Err(u64.Error);
+                visitor.OnU64(u64.Item);
+                return SkyResult.Ok(true);
+            case SKYHASH_ARRAY:
+                return ParseNextArrayHeader(ArrayType.Recursive, visitor);
+            case SKYHASH_RESPCODE:
+                var respCode = ParseNextRespCode();
+                if (respCode.IsError)
+                    return SkyResult.Err(respCode.Error);
+                visitor.OnRespCode(respCode.Item);
+                return SkyResult.Ok(true);
+            case SKYHASH_FLATARRAY:
+                return ParseNextArrayHeader(ArrayType.Flat, visitor);
+            case SKYHASH_BINARYSTRING:
+                var binaryString = ParseNextBinaryString(retain);
+                if (binaryString.IsError)
+                    return SkyResult.Err(binaryString.Error);
+                visitor.OnBinary(binaryString.Item);
+                return SkyResult.Ok(true);
+            case SKYHASH_TYPEDARRAY:
+                // hmmm, a typed array; let's check the tsymbol
+                if (_buffer.position() <= _cursor)
+                    return NotEnough(_cursor + 1);
+
+                // got tsymbol, let's skip it too
+                var typedTsymbol = _buffer.get(_cursor++);
+                switch (typedTsymbol)
+                {
+                    case SKYHASH_STRING:
+                        return ParseNextArrayHeader(ArrayType.String, visitor);
+                    case SKYHASH_BINARYSTRING:
+                        return ParseNextArrayHeader(ArrayType.BinaryString, visitor);
+                    default:
+                        return SkyResult.Err(ParseError.UnknownDataType);
+                }
+            default:
+                return SkyResult.Err(ParseError.UnknownDataType);
         }
+    }
 
-        private SkyResult<Boolean> WillCursorGiveChar(char c, boolean thisIfNothingAhead)
+    /// Parse the next member of a flat or typed array and hand it to the visitor.
+    private SkyResult<Boolean> ParseNextMember(PartialArray array, IElementVisitor visitor)
+    {
+        switch (array.Type)
         {
-            if (_buffer.Count <= _cursor)
-            {
-                if (thisIfNothingAhead)
-                    return SkyResult.Ok(true);
-                return SkyResult.Err(ParseError.NotEnough, Boolean.FALSE);
-            }
+            case Flat:
+                if (_buffer.position() <= _cursor)
+                    return NotEnough(_cursor + 1);
 
-            return SkyResult.Ok(_buffer.get(_cursor) == c);
+                // TODO: +, ?, !, : should be supported here. Not just +.
+                var tsymbol = _buffer.get(_cursor++);
+                if (tsymbol != SKYHASH_STRING)
+                    return SkyResult.Err(ParseError.UnknownDataType);
+
+                // String members are decoded by the builder right away, no need to keep their bytes around.
+                var str = ParseNextBinaryString(false);
+                if (str.IsError)
+                    return SkyResult.Err(str.Error);
+                visitor.OnString(str.Item);
+                return SkyResult.Ok(true);
+            case String:
+                // no tsymbol, just elements and their sizes
+                var typedStr = ParseNextBinaryStringNullcheck(false);
+                if (typedStr.IsError)
+                    return SkyResult.Err(typedStr.Error);
+                if (typedStr.Item == null)
+                    visitor.OnNull();
+                else
+                    visitor.OnString(typedStr.Item);
+                return SkyResult.Ok(true);
+            case BinaryString:
+                var typedBin = ParseNextBinaryStringNullcheck(visitor == _builder);
+                if (typedBin.IsError)
+                    return SkyResult.Err(typedBin.Error);
+                if (typedBin.Item == null)
+                    visitor.OnNull();
+                else
+                    visitor.OnBinary(typedBin.Item);
+                return SkyResult.Ok(true);
+            default:
+                return SkyResult.Err(ParseError.UnknownDataType);
         }
+    }
+
+    private SkyResult<Boolean> ParseNextArrayHeader(ArrayType type, IElementVisitor visitor)
+    {
+        var size = ParseNextSize();
+        if (size.IsError)
+            return SkyResult.Err(size.Error);
 
-        private SkyResult<Boolean> WillCursorGiveLineFeed()
+        _stack.push(new PartialArray(type, size.Item));
+        visitor.OnArrayStart(type, size.Item);
+        return SkyResult.Ok(false);
+    }
+
+    private SkyResult<Long> ParseNextU64()
+    {
+        var chunk = ParseNextChunk();
+        if (chunk.IsError)
+            return SkyResult.Err(chunk.Error);
+
+        return ParseU64(chunk.Item, _cursor - 1);
+    }
+
+    private SkyResult<ByteSlice> ParseNextBinaryString(boolean retain)
+    {
+        var chunk = ParseNextChunk();
+        if (chunk.IsError)
+            return SkyResult.Err(chunk.Error);
+
+        return SkyResult.Ok(Slice(chunk.Item, _cursor - 1, retain));
+    }
+
+    private SkyResult<ResponseCode> ParseNextRespCode()
+    {
+        var chunk = ParseNextChunk();
+        if (chunk.IsError)
+            return SkyResult.Err(chunk.Error);
+
+        // Everyday codes are a single digit and map straight onto the shared instances, no need to decode them.
+        if (_cursor - 1 - chunk.Item == 1)
         {
-            return WillCursorGiveChar((char)SKYHASH_LINEFEED, false);
+            var digit = _buffer.get(chunk.Item);
+            if (digit >= '0' && digit <= '9')
+                return SkyResult.Ok(ResponseCode.From(digit - '0'));
         }
 
-        private SkyResult<String> ParseNextString()
+        return SkyResult.Ok(ResponseCode.From(Decode(chunk.Item, _cursor - 1)));
+    }
+
+    private SkyResult<ByteSlice> ParseNextBinaryStringNullcheck(boolean retain)
+    {
+        if (_buffer.position() <= _cursor)
+            return NotEnough(_cursor + 1);
+
+        if (_buffer.get(_cursor) == SKYHASH_NULL)
         {
-            var ourStringChunk = GetNextElement();
-            if (ourStringChunk.IsError)
-                return SkyResult.Err(ourStringChunk.Error);
+            _cursor++;
+            return SkyResult.Ok(null);
+        }
 
-            var ourString = ourStringChunk.Item;
-            var result = WillCursorGiveLineFeed();
-            if (result.IsOk && result.Item)
-            {
-                _cursor++;
-                return SkyResult.Ok(ourString);
-            }
+        return ParseNextBinaryString(retain);
+    }
 
+    /// Read a `<size>\n<payload>\n` chunk and return the offset of the payload.
+    /// The payload ends right before the trailing line feed, i.e. at `_cursor - 1`.
+    ///
+    /// This **will forward the cursor itself**
+    private SkyResult<Integer> ParseNextChunk()
+    {
+        var size = ParseNextSize();
+        if (size.IsError)
+            return SkyResult.Err(size.Error);
+
+        var startedAt = _cursor;
+        var stoppedAt = startedAt + size.Item;
+        if (_buffer.position() <= stoppedAt)
+            return NotEnough(stoppedAt + 1);
+
+        if (_buffer.get(stoppedAt) != SKYHASH_LINEFEED)
             return SkyResult.Err(ParseError.UnexpectedByte);
-        }
 
-        private SkyResult<List<byte>> ParseNextBinaryString()
-        {
-            var ourStringChunk = GetNextElement();
-            if (ourStringChunk.IsError)
-                return ourStringChunk;
+        _cursor = stoppedAt + 1;
+        return SkyResult.Ok(startedAt);
+    }
 
-            var result = WillCursorGiveLineFeed();
-            if (result.IsOk && result.Item)
-            {
-                // there is a lf after the end of the binary string; great!
-                // let's skip that now
-                _cursor++;
-                // let's return our string
-                return SkyResult<List<byte>>.Ok(ourStringChunk.Item);
-            }
+    /// Read a `<size>\n` line.
+    ///
+    /// This **will forward the cursor itself**
+    private SkyResult<Integer> ParseNextSize()
+    {
+        var lineFeed = ReadLine(_cursor);
+        if (lineFeed < 0)
+            return NotEnough(_buffer.position() + 1);
 
-            return SkyResult<List<byte>>.Err(ParseError.UnexpectedByte);
-        }
+        var size = ParseSize(_cursor, lineFeed);
+        _cursor = lineFeed + 1;
+        return size;
+    }
+
+    /// This will return the number of datagroups present in this query packet
+    ///
+    /// This **will forward the cursor itself**
+    private SkyResult<Integer> ParseMetaframeGetDatagroupCount()
+    {
+        // The smallest query we can have is: `*1\n` or 3 chars
+        if (_buffer.position() < _cursor + 3)
+            return NotEnough(_cursor + 3);
 
-        /// Parse the next null checked element
-        private SkyResult<List<byte>> ParseNextChunkNullcheck()
+        if (_buffer.get(_cursor) != SKYHASH_HEADER)
+            return SkyResult.Err(ParseError.UnexpectedByte);
+
+        // Now we want to read `*<n>\n`
+        var lineFeed = ReadLine(_cursor + 1);
+        if (lineFeed < 0)
+            return NotEnough(_buffer.position() + 1);
+
+        var size = ParseSize(_cursor + 1, lineFeed);
+        _cursor = lineFeed + 1;
+        return size;
+    }
+
+    private SkyResult<Boolean> WillCursorGiveChar(byte c, boolean thisIfNothingAhead)
+    {
+        if (_buffer.position() <= _cursor)
         {
-            var (startedAt, stoppedAt) = ReadLine();
-            var sizeLine = _buffer.GetRange(startedAt, stoppedAt - startedAt);
-            if (sizeLine.Count == 0)
-                return SkyResult<List<byte>>.Err(ParseError.NotEnough);
-
-            var result = ParseSize(sizeLine);
-            if (result.IsError)
-                return SkyResult<List<byte>>.Err(result.Error);
-            return ReadUntil(result.Item);
+            if (thisIfNothingAhead)
+                return SkyResult.Ok(true);
+            return SkyResult.Err(ParseError.NotEnough);
         }
 
-        private SkyResult<List<byte>> ParseNextBinaryStringNullcheck()
-        {
-            var ourChunk = ParseNextChunkNullcheck();
-            if (ourChunk.IsError)
-                return ourChunk;
+        return SkyResult.Ok(_buffer.get(_cursor) == c);
+    }
 
-            var result = WillCursorGiveLineFeed();
-            if (result.IsOk && result.Item)
-            {
-                _cursor++;
-                return SkyResult<List<byte>>.Ok(ourChunk.Item);
-            }
-            return SkyResult<List<byte>>.Err(ParseError.UnexpectedByte);
-        }
+    private SkyResult<Integer> ParseSize(int startedAt, int stoppedAt)
+    {
+        if (startedAt == stoppedAt)
+            return SkyResult.Err(ParseError.DataTypeParseError);
 
-        private SkyResult<string> ParseNextStringNullcheck()
+        if (stoppedAt - startedAt <= ByteScanner.MAX_DIGITS)
         {
-            var ourChunk = ParseNextBinaryStringNullcheck();
-            if (ourChunk.IsError)
-                return SkyResult<string>.Err(ourChunk.Error);
+            var digits = SCANNER.ParseDigits(_buffer, startedAt, stoppedAt);
+            if (digits < 0 || digits > Integer.MAX_VALUE)
+                return SkyResult.Err(ParseError.DataTypeParseError);
 
-            return SkyResult<string>.Ok(Encoding.UTF8.GetString(ourChunk.Item.ToArray()));
+            return SkyResult.Ok((int) digits);
         }
 
-        private SkyResult<ResponseCode> ParseNextRespCode()
+        int itemSize = 0;
+        for (int i = startedAt; i < stoppedAt; i++)
         {
-            var ourRespcodeChunk = GetNextElement();
-            if (ourRespcodeChunk.IsError)
-                return SkyResult<ResponseCode>.Err(ourRespcodeChunk.Error);
-
-            var ourRespCode = Encoding.UTF8.GetString(ourRespcodeChunk.Item.ToArray());
-            var result = WillCursorGiveLineFeed();
-            if (result.IsOk && result.Item)
+            byte digit = _buffer.get(i);
+            if (digit < '0' || digit > '9')
+                return SkyResult.Err(ParseError.DataTypeParseError);
+
+            // 48 is the ASCII code for 0, and 57 is the ascii code for 9
+            // so if 0 is given, the subtraction should give 0; similarly
+            // if 9 is given, the subtraction should give us 9!
+            try
             {
-                _cursor++;
-                return SkyResult<ResponseCode>.Ok(ResponseCode.From(ourRespCode));
+                itemSize = Math.addExact(Math.multiplyExact(itemSize, 10), digit - 48);
+            }
+            catch (ArithmeticException e)
+            {
+                return SkyResult.Err(ParseError.DataTypeParseError);
             }
-
-            return SkyResult<ResponseCode>.Err(ParseError.UnexpectedByte);
         }
 
-        /// This will return the number of datagroups present in this query packet
-        ///
-        /// This **will forward the cursor itself**
-        private SkyResult<int> ParseMetaframeGetDatagroupCount()
-        {
-            // The smallest query we can have is: `*1\n` or 3 chars
-            if (_buffer.Count < 3)
-                return SkyResult<int>.Err(ParseError.NotEnough);
+        return SkyResult.Ok(itemSize);
+    }
 
-            // Now we want to read `*<n>\n`
-            var (startedAt, stoppedAt) = ReadLine();
-            var ourChunk = _buffer.GetRange(startedAt, stoppedAt - startedAt);
+    private SkyResult<Long> ParseU64(int startedAt, int stoppedAt)
+    {
+        if (startedAt == stoppedAt)
+            return SkyResult.Err(ParseError.DataTypeParseError);
 
-            if (ourChunk[0] == SKYHASH_HEADER)
-                return ParseSize(ourChunk.GetRange(1, ourChunk.Count - 1));
+        // Up to sixteen digits cannot overflow, only longer values need the checked loop below.
+        if (stoppedAt - startedAt <= ByteScanner.MAX_DIGITS)
+        {
+            var digits = SCANNER.ParseDigits(_buffer, startedAt, stoppedAt);
+            if (digits < 0)
+                return SkyResult.Err(ParseError.DataTypeParseError);
 
-            return SkyResult<int>.Err(ParseError.UnexpectedByte);
+            return SkyResult.Ok(digits);
         }
 
-        private SkyResult<int> ParseSize(List<byte> bytes)
+        long itemU64 = 0;
+        for (int i = startedAt; i < stoppedAt; i++)
         {
-            if (bytes.Count == 0)
-                return SkyResult<int>.Err(ParseError.NotEnough);
+            byte digit = _buffer.get(i);
+            if (digit < '0' || digit > '9')
+                return SkyResult.Err(ParseError.DataTypeParseError);
+
+            // The value is unsigned, so overflow has to be checked against the unsigned range.
+            if (Long.compareUnsigned(itemU64, Long.divideUnsigned(-1L, 10)) > 0)
+                return SkyResult.Err(ParseError.DataTypeParseError);
+
+            var product = itemU64 * 10;
+            itemU64 = product + (digit - 48);
+            if (Long.compareUnsigned(itemU64, product) < 0)
+                return SkyResult.Err(ParseError.DataTypeParseError);
+        }
 
-            int itemSize = 0;
-            foreach (byte digit in bytes)
-            {
-                var c = (char)digit;
-                if (!char.IsDigit(c))
-                    return SkyResult<int>.Err(ParseError.DataTypeParseError);
-
-                // 48 is the ASCII code for 0, and 57 is the ascii code for 9
-                // so if 0 is given, the subtraction should give 0; similarly
-                // if 9 is given, the subtraction should give us 9!
-                try
-                {
-                    checked
-                    {
-                        byte curDig = (byte)(digit - 48);
-                        var product = itemSize * 10;
-                        itemSize = product + curDig;
-                    }
-                }
-                catch(OverflowException)
-                {
-                    return SkyResult<int>.Err(ParseError.DataTypeParseError);
-                }
-            }
+        return SkyResult.Ok(itemU64);
+    }
+
+    /// Returns the position of the next line feed at or after `from`, or -1 if it has not been received yet.
+    private int ReadLine(int from)
+    {
+        return SCANNER.IndexOf(_buffer, from, _buffer.position(), SKYHASH_LINEFEED);
+    }
 
-            return SkyResult<int>.Ok(itemSize);
+    private String Decode(int startedAt, int stoppedAt)
+    {
+        if (_buffer.hasArray())
+            return new String(_buffer.array(), _buffer.arrayOffset() + startedAt, stoppedAt - startedAt, StandardCharsets.UTF_8);
+
+        var bytes = new byte[stoppedAt - startedAt];
+        _buffer.get(startedAt, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /// Hand out the bytes between the two positions. Values that are retained beyond the visitor call are copied if
+    /// they are small; large ones are viewed in place, which pins the buffer: it is replaced rather than compacted or
+    /// cleared once their bytes have been consumed.
+    private ByteSlice Slice(int startedAt, int stoppedAt, boolean retain)
+    {
+        var length = stoppedAt - startedAt;
+        if (retain && length < VIEW_THRESHOLD)
+        {
+            var bytes = new byte[length];
+            _buffer.get(startedAt, bytes);
+            return new ByteSlice(bytes);
         }
 
-        private SkyResult<Long> ParseU64(List<Byte> bytes)
+        _shared |= retain;
+        if (_buffer.hasArray())
+            return new ByteSlice(_buffer.array(), _buffer.arrayOffset() + startedAt, length);
+        return new ByteSlice(_buffer, startedAt, length);
+    }
+
+    /// Drop the bytes in front of the cursor, they have been handed to the visitor.
+    private void Release()
+    {
+        var consumed = _cursor;
+        if (_shared)
         {
-            if (bytes.isEmpty())
-                return SkyResult.Err(ParseError.NotEnough);
+            Detach(_cursor);
+        }
+        else
+        {
+            _buffer.limit(_buffer.position()).position(_cursor);
+            _buffer.compact();
+        }
+        _cursor = 0;
+        _needed = Math.max(0, _needed - consumed);
+    }
 
-            long itemU64 = 0;
-            for (Byte digit : bytes)
-            {
-                var temp = digit.toString();
-                Char c = Char.();
-                if (!Char.isNumericInger())
-                    return SkyResult.Err(ParseError.DataTypeParseError);
-
-                // 48 is the ASCII code for 0, and 57 is the ascii code for 9
-                // so if 0 is given, the subtraction should give 0; similarly
-                // if 9 is given, the subtraction should give us 9!
-                try
-                {
-                    checked
-                    {
-                        byte curDig = (byte)(digit - 48);
-                        var product = itemU64 * 10;
-                        itemU64 = product + curDig;
-                    }
-                }
-                catch(OverflowException)
-                {
-                    return SkyResult<ulong>.Err(ParseError.DataTypeParseError);
-                }
-            }
+    /// Continue in a fresh buffer holding the bytes from `from` onwards, leaving the current one to its views.
+    private void Detach(int from)
+    {
+        var remaining = _buffer.position() - from;
+        var fresh = Allocate(Math.max(_capacity, remaining));
+        _buffer.flip().position(from);
+        fresh.put(_buffer);
+        _buffer = fresh;
+        _shared = false;
+    }
 
-            return SkyResult<ulong>.Ok(itemU64);
+    private ByteBuffer Allocate(int capacity)
+    {
+        return BufferPool.TakeBuffer(capacity, _direct);
+    }
+
+    /// Give back a buffer that is empty and far larger than the recent responses need.
+    private void Adapt(int responseSize)
+    {
+        _recentSize = Math.max(responseSize, _recentSize - (_recentSize >> 4));
+        var target = Math.max(_capacity, _recentSize);
+        if (_buffer.position() == 0 && !_shared && _buffer.capacity() > SHRINK_FACTOR * target)
+        {
+            BufferPool.Give(_buffer);
+            _buffer = Allocate(target);
         }
+    }
 
-    private (int, int) ReadLine()
+    /// Grow the buffer so that at least `count` more bytes fit behind the ones already received.
+    private void EnsureRemaining(int count)
     {
-        var startedAt = _cursor;
-        var stoppedAt = _cursor;
+        if (_buffer.remaining() >= count)
+            return;
 
-        while (_cursor < _buffer.Count)
+        // Reuse the room taken by bytes that have already been consumed before growing.
+        if (_cursor > 0)
         {
-            if (_buffer[_cursor] == SKYHASH_LINEFEED)
-            {
-                _cursor++;
-                break;
-            }
+            Release();
+            if (_buffer.remaining() >= count)
+                return;
+        }
 
-            _cursor++;
-            stoppedAt += 1;
+        var required = Math.addExact(_buffer.position(), count);
+        var grown = Allocate(Math.max(required, Math.max(_buffer.capacity() * 2, _capacity)));
+        _buffer.flip();
+        grown.put(_buffer);
+        if (!_shared)
+            BufferPool.Give(_buffer);
+        _buffer = grown;
+        _shared = false;
+    }
+
+    /**
+     * <summary>An array whose header has been read but whose members have not all been read yet.</summary>
+     */
+    private static final class PartialArray
+    {
+        final ArrayType Type;
+        final int Size;
+        int Count;
+
+        PartialArray(ArrayType type, int size)
+        {
+            Type = type;
+            Size = size;
         }
 
-        return (startedAt, stoppedAt);
+        boolean IsComplete()
+        {
+            return Count == Size;
+        }
     }
 }
@@ -0,0 +1,69 @@
+package tech.novoess.skytable4j.parsing;
+
+import tech.novoess.skytable4j.SkyResult;
+import tech.novoess.skytable4j.querying.Element;
+import tech.novoess.skytable4j.querying.RespCode;
+import tech.novoess.skytable4j.querying.ResponseCode;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <summary>
+ * Recognises a complete response that consists of nothing but a single-digit response code, `*1\n!1\n&lt;d&gt;\n`,
+ * which is what SET, USET, DEL and friends answer with. The frame is matched with a single 8 byte comparison and
+ * mapped onto a cached result, skipping the general parser entirely.
+ * </summary>
+ */
+public final class ResponseCodeRecognizer
+{
+    /**
+     * <summary>The length of a response-code-only frame.</summary>
+     */
+    public static final int FRAME_LENGTH = 8;
+
+    // `*1\n!1\n?\n` read as a big endian long, the code digit masked out.
+    private static final long FRAME = 0x2A310A21310A000AL;
+    private static final long MASK  = 0xFFFFFFFFFFFF00FFL;
+    private static final byte SKYHASH_HEADER = 42;  // *
+
+    private static final SkyResult<?>[] RESULTS = new SkyResult<?>[RespCode.values().length];
+
+    static
+    {
+        for (var respCode : RespCode.values())
+            RESULTS[respCode.value] = SkyResult.Ok(Element.Of(ResponseCode.Of(respCode)));
+    }
+
+    private ResponseCodeRecognizer()
+    {
+    }
+
+    /**
+     * <summary>
+     * Returns the cached result if the bytes from `offset` up to `limit` start with a complete response-code-only
+     * frame that is followed by nothing or by the next response, and null otherwise. The buffer's position and limit
+     * are not used.
+     * </summary>
+     */
+    @SuppressWarnings("unchecked")
+    public static SkyResult<Element> Match(ByteBuffer buffer, int offset, int limit)
+    {
+        if (limit - offset < FRAME_LENGTH)
+            return null;
+        if (limit - offset > FRAME_LENGTH && buffer.get(offset + FRAME_LENGTH) != SKYHASH_HEADER)
+            return null;
+
+        var frame = buffer.order() == ByteOrder.BIG_ENDIAN
+                ? buffer.getLong(offset)
+                : Long.reverseBytes(buffer.getLong(offset));
+        if ((frame & MASK) != FRAME)
+            return null;
+
+        var code = (int) (frame >>> 8 & 0xFF) - '0';
+        if (code < 0 || code >= RESULTS.length)
+            return null;
+
+        return (SkyResult<Element>) RESULTS[code];
+    }
+}
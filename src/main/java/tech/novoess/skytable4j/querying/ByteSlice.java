@@ -0,0 +1,158 @@
+package tech.novoess.skytable4j.querying;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <summary>
+ * A read-only view of a range of bytes received from the server.
+ * Large values are not copied out of the receive buffer; the view points into it instead. Use {@link #ToArray()}
+ * when a private copy is needed, or {@link #AsByteBuffer()} and {@link #WriteTo(OutputStream)} to pass the bytes on
+ * without copying them.
+ * </summary>
+ */
+public final class ByteSlice
+{
+    private final byte[] _array;
+    private final ByteBuffer _buffer;
+    private final int _offset;
+    private final int _length;
+
+    /**
+     * <summary>Creates a view over the whole array. The array must not be modified afterwards.</summary>
+     */
+    public ByteSlice(byte[] array)
+    {
+        this(array, 0, array.length);
+    }
+
+    /**
+     * <summary>Creates a view over a range of an array. The range must not be modified afterwards.</summary>
+     */
+    public ByteSlice(byte[] array, int offset, int length)
+    {
+        _array = array;
+        _buffer = null;
+        _offset = offset;
+        _length = length;
+    }
+
+    /**
+     * <summary>Creates a view over a range of a buffer, addressed by absolute index. The range must not be modified afterwards.</summary>
+     */
+    public ByteSlice(ByteBuffer buffer, int offset, int length)
+    {
+        _array = null;
+        _buffer = buffer;
+        _offset = offset;
+        _length = length;
+    }
+
+    /**
+     * <summary>Returns the number of bytes in the view.</summary>
+     */
+    public int Length()
+    {
+        return _length;
+    }
+
+    /**
+     * <summary>Returns the byte at the given index of the view.</summary>
+     */
+    public byte Get(int index)
+    {
+        if (index < 0 || index >= _length)
+            throw new IndexOutOfBoundsException(index);
+
+        return _array != null ? _array[_offset + index] : _buffer.get(_offset + index);
+    }
+
+    /**
+     * <summary>Returns a read-only buffer over the bytes of the view. No bytes are copied.</summary>
+     */
+    public ByteBuffer AsByteBuffer()
+    {
+        if (_array != null)
+            return ByteBuffer.wrap(_array, _offset, _length).slice().asReadOnlyBuffer();
+
+        return _buffer.slice(_offset, _length).asReadOnlyBuffer();
+    }
+
+    /**
+     * <summary>Copies the bytes of the view into a new array.</summary>
+     */
+    public byte[] ToArray()
+    {
+        if (_array != null)
+            return Arrays.copyOfRange(_array, _offset, _offset + _length);
+
+        var bytes = new byte[_length];
+        _buffer.get(_offset, bytes);
+        return bytes;
+    }
+
+    /**
+     * <summary>Writes the bytes of the view to the stream. Views over a heap array are written without a copy.</summary>
+     */
+    public void WriteTo(OutputStream stream) throws IOException
+    {
+        if (_array != null)
+            stream.write(_array, _offset, _length);
+        else
+            stream.write(ToArray());
+    }
+
+    /**
+     * <summary>
+     * Decodes the bytes of the view as UTF-8. Pure ASCII, which most keys and values are, is copied straight into
+     * a Latin-1 string without going through the UTF-8 decoder.
+     * </summary>
+     */
+    public String ToUtf8String()
+    {
+        var array = _array;
+        var offset = _offset;
+        if (array == null)
+        {
+            array = ToArray();
+            offset = 0;
+        }
+
+        for (int i = offset; i < offset + _length; i++)
+        {
+            if (array[i] < 0)
+                return new String(array, offset, _length, StandardCharsets.UTF_8);
+        }
+
+        return new String(array, offset, _length, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (this == other)
+            return true;
+        if (!(other instanceof ByteSlice))
+            return false;
+
+        var slice = (ByteSlice) other;
+        return AsByteBuffer().equals(slice.AsByteBuffer());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return AsByteBuffer().hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ByteSlice{" +
+                "Length=" + _length +
+                '}';
+    }
+}
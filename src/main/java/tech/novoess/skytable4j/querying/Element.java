@@ -1,64 +1,156 @@
 package tech.novoess.skytable4j.querying;
 
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
-/// <summary>Represents the data types supported by the Skyhash protocol.</summary>
+/// <summary>
+/// Represents the data types supported by the Skyhash protocol.
+/// Unsigned integers are kept in a primitive slot and response codes without a message are shared instances,
+/// so integer replies never box and plain acknowledgements allocate nothing.
+/// </summary>
 public class Element
 {
-    /// <summary>Gets the object that this element represents. It is of type <see cref="ElementType"/>.</summary>
-    public Object Object;
+    private static final Element[] RESPONSE_CODES = new Element[RespCode.values().length];
+
+    static
+    {
+        for (var respCode : RespCode.values())
+            RESPONSE_CODES[respCode.value] = new Element(ResponseCode.Of(respCode));
+    }
 
     /// <summary>Gets the <see cref="ElementType"/> of the Object that this element represents.</summary>
-    public ElementType Type;
+    public final ElementType Type;
+
+    private final long _value;
+    private final Object _object;
+    private String _string;
+
+    public Element(String s)
+    {
+        this(ElementType.String, 0, s);
+        _string = s;
+    }
+
+    public Element(long n)
+    {
+        this(ElementType.UnsignedInt, n, null);
+    }
+
+    public Element(ResponseCode r)
+    {
+        this(ElementType.RespCode, 0, r);
+    }
+
+    /// <summary>Creates a String or BinaryString element over bytes received from the server. Strings are decoded on first access.</summary>
+    public Element(ByteSlice bytes, ElementType type)
+    {
+        this(type, 0, bytes);
+    }
 
-    Element(String s)
+    public Element(List<?> items, ElementType type)
     {
-        Object = s;
-        Type = ElementType.String;
+        this(type, 0, items);
     }
 
-    Element(long n)
+    private Element(ElementType type, long value, Object object)
     {
-        Object = n;
-        Type = ElementType.UnsignedInt;
+        Type = type;
+        _value = value;
+        _object = object;
     }
 
-    Element(ResponseCode r)
+    /// <summary>Returns an element for the response code, shared for every code that carries no message.</summary>
+    public static Element Of(ResponseCode code)
     {
-        Object = r;
-        Type = ElementType.RespCode;
+        if (code.Error == null)
+            return RESPONSE_CODES[code.Code.value];
+        return new Element(code);
+    }
+
+    /// <summary>Gets the object that this element represents. It is of type <see cref="ElementType"/>. String elements are decoded and unsigned integers boxed on access.</summary>
+    public Object getObject()
+    {
+        switch (Type)
+        {
+            case UnsignedInt:
+                return _value;
+            case String:
+                return AsString();
+            default:
+                return _object;
+        }
+    }
+
+    /// <summary>Returns the value of an UnsignedInt element. Use <see cref="Long.toUnsignedString(long)"/> for values above <see cref="Long.MAX_VALUE"/>.</summary>
+    public long AsUnsignedInt()
+    {
+        Expect(ElementType.UnsignedInt);
+        return _value;
+    }
+
+    /// <summary>Returns the response code of a RespCode element.</summary>
+    public ResponseCode AsResponseCode()
+    {
+        Expect(ElementType.RespCode);
+        return (ResponseCode) _object;
+    }
+
+    /// <summary>Returns the text of a String or BinaryString element, decoding it from UTF-8 the first time it is requested.</summary>
+    public String AsString()
+    {
+        if (_string == null)
+            _string = AsBytes().ToUtf8String();
+        return _string;
+    }
+
+    /// <summary>Returns the raw bytes of a String or BinaryString element without copying them.</summary>
+    public ByteSlice AsBytes()
+    {
+        if (_object instanceof ByteSlice)
+            return (ByteSlice) _object;
+        if (_object instanceof String)
+            return new ByteSlice(((String) _object).getBytes(StandardCharsets.UTF_8));
+
+        throw new IllegalStateException("An element of type " + Type + " does not hold bytes.");
     }
 
-    Element(List<Element> elements)
+    /// <summary>Returns the members of a recursive Array element.</summary>
+    @SuppressWarnings("unchecked")
+    public List<Element> AsArray()
     {
-        Object = elements;
-        Type = ElementType.Array;
+        Expect(ElementType.Array);
+        return (List<Element>) _object;
     }
 
-    Element(List<String> strings)
+    /// <summary>Returns the members of a flat or typed string array. Null members of a typed array are null.</summary>
+    @SuppressWarnings("unchecked")
+    public List<String> AsStringArray()
     {
-        Object = strings;
-        Type = ElementType.FlatArray;
+        if (Type != ElementType.StringArray)
+            Expect(ElementType.FlatArray);
+        return (List<String>) _object;
     }
 
-    Element(List<Byte> binaryString)
+    /// <summary>Returns the members of a typed binary array. Null members are null.</summary>
+    @SuppressWarnings("unchecked")
+    public List<ByteSlice> AsBinaryArray()
     {
-        Object = binaryString;
-        Type = ElementType.BinaryString;
+        Expect(ElementType.BinaryArray);
+        return (List<ByteSlice>) _object;
     }
 
-    Element(List<List<Byte>> binaryStrings)
+    private void Expect(ElementType type)
     {
-        Object = binaryStrings;
-        Type = ElementType.FlatArray;
+        if (Type != type)
+            throw new IllegalStateException("Expected an element of type " + type + " but it is of type " + Type + ".");
     }
 
     @Override
     public String toString() {
         return "Element{" +
-                "Object=" + Object +
+                "Object=" + getObject() +
                 ", Type=" + Type +
                 '}';
     }
-}
\ No newline at end of file
+}
@@ -28,5 +28,13 @@ public enum ElementType
     /**
      * <summary>A binary string value; `&lt;tsymbol&gt;` is `?`.</summary>
      */
-    BinaryString
+    BinaryString,
+    /**
+     * <summary>A typed array of unicode strings, which may be null; `typed array &lt;tsymbol&gt;` is `+`.</summary>
+     */
+    StringArray,
+    /**
+     * <summary>A typed array of binary strings, which may be null; `typed array &lt;tsymbol&gt;` is `?`.</summary>
+     */
+    BinaryArray
 }
\ No newline at end of file
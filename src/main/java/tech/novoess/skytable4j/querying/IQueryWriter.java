@@ -1,8 +1,8 @@
 package tech.novoess.skytable4j.querying;
 
 
-import javafx.concurrent.Task;
-import java.util.stream.Stream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  *  <summary>Interface for an object that can be written to a stream.</summary>
@@ -12,9 +12,5 @@ public interface IQueryWriter
     /**
      * <summary>Writes the query to the specified stream.</summary>
      */
-    void WriteTo(Stream stream);
-    /**
-     * <summary>Writes the query to the specified stream asynchronously.</summary>
-     */
-    Task WriteToAsync(Stream stream);
+    void WriteTo(OutputStream stream) throws IOException;
 }
@@ -12,64 +12,219 @@
 //  See the License for the specific language governing permissions and
 //  limitations under the License.
 
-using System;
-using System.Collections.Generic;
-using System.IO;
-using System.Threading.Tasks;
+package tech.novoess.skytable4j.querying;
 
-namespace Skytable.Client.Querying
+import tech.novoess.skytable4j.buffers.BufferPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <summary>
+ * A pipeline is a way of queing up multiple queries, sending them to the server at once instead of sending them individually,
+ * avoiding round-trip-times while also simplifying usage in several places. Responses are returned in the order they are sent.
+ * Queries are encoded into fixed-size chunks taken from the {@link BufferPool}, so a large pipeline is never copied into one
+ * contiguous array. A pipeline created with {@link #Pipeline(int, OutputStream)} knows its size up front and writes every
+ * chunk to the stream as soon as it fills up, while the caller keeps adding queries.
+ * </summary>
+ */
+public class Pipeline implements IQueryWriter, AutoCloseable
 {
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // Room for `*N\n` in front of the first chunk, so that it goes out with the queries: `*`, ten digits and a line feed.
+    private static final int HEADER_CAPACITY = 12;
+
+    private final List<byte[]> _chunks;
+    private byte[] _current;
+    private int _position;
+    private int _queryCount;
+    private final int _declaredCount;
+    private final OutputStream _stream;
+    private boolean _started;
+
+    /// <summary>Creates an empty pipeline.</summary>
+    public Pipeline()
+    {
+        _chunks = new ArrayList<>();
+        _queryCount = 0;
+        _declaredCount = -1;
+        _stream = null;
+    }
+
     /// <summary>
-    /// A pipeline is a way of queing up multiple queries, sending them to the server at once instead of sending them individually,
-    /// avoiding round-trip-times while also simplifying usage in several places. Responses are returned in the order they are sent.
+    /// Creates an empty pipeline of exactly `count` queries that streams to the given stream: every chunk is sent as
+    /// soon as it is full, the first one preceded by the packet header. {@link #WriteTo} sends what is left, or the
+    /// header alone if no chunk has filled up yet, and has to be given the same stream.
     /// </summary>
-    public class Pipeline : IQueryWriter
+    public Pipeline(int count, OutputStream stream)
+    {
+        if (count <= 0)
+            throw new IllegalArgumentException("A Pipeline cannot be empty!");
+
+        _chunks = new ArrayList<>();
+        _queryCount = 0;
+        _declaredCount = count;
+        _stream = stream;
+    }
+
+    /// <summary>Append a query (builder pattern).</summary>
+    public Pipeline Add(Query query)
+    {
+        Push(query);
+        return this;
+    }
+
+    /// <summary>Append a query. A streaming pipeline throws an {@link UncheckedIOException} if a full chunk cannot be sent.</summary>
+    public void Push(Query query)
     {
-        private List<byte> _chain;
-        private int _queryCount;
-        
-        /// <summary>Creates an empty pipeline.</summary>
-        public Pipeline()
+        if (_queryCount == _declaredCount)
+            throw new IllegalStateException("The pipeline was declared with " + _declaredCount + " queries.");
+
+        _queryCount++;
+        query.WriteTo(this);
+    }
+
+    /// <summary>Writes the pipeline, or what has not been streamed yet, to the specified stream.</summary>
+    public void WriteTo(OutputStream stream) throws IOException
+    {
+        if (_stream != null)
         {
-            _chain = new List<byte>();
-            _queryCount = 0;
+            if (stream != _stream)
+                throw new IllegalArgumentException("A streaming pipeline can only be written to its own stream.");
+            if (_queryCount != _declaredCount)
+                throw new IllegalStateException("The pipeline was declared with " + _declaredCount + " queries but has " + _queryCount + ".");
+
+            Start();
+            if (_current != null)
+                _stream.write(_current, 0, _position);
+            Reset();
+            return;
+        }
+
+        var first = _chunks.isEmpty() ? _current : _chunks.get(0);
+        if (first == null)
+        {
+            stream.write(Header(_queryCount));
+            return;
         }
 
-        /// <summary>Append a query (builder pattern).</summary>
-        public Pipeline Add(Query query)
+        var header = Header(_queryCount);
+        var start = HEADER_CAPACITY - header.length;
+        System.arraycopy(header, 0, first, start, header.length);
+        for (var chunk : _chunks)
         {
-            _queryCount++;
-            query.WriteTo(_chain);
-            return this;
+            stream.write(chunk, chunk == first ? start : 0, chunk == first ? CHUNK_SIZE - start : CHUNK_SIZE);
         }
+        if (_current != null)
+            stream.write(_current, _current == first ? start : 0, _current == first ? _position - start : _position);
+    }
+
+    /// <summary>Returns the number of queries in the pipeline.</summary>
+    public int getCount()
+    {
+        return _queryCount;
+    }
+
+    /// <summary>Returns the number of encoded bytes in the pipeline, without the packet header. Streamed chunks are not counted.</summary>
+    public long getLength()
+    {
+        var length = (long) _chunks.size() * CHUNK_SIZE + (_current != null ? _position : 0);
+        return _stream == null && length > 0 ? length - HEADER_CAPACITY : length;
+    }
+
+    /// <summary>Removes all queries and returns the chunks to the pool. A streaming pipeline cannot be used afterwards.</summary>
+    public void Reset()
+    {
+        for (var chunk : _chunks)
+            BufferPool.Give(chunk);
+        _chunks.clear();
+        if (_current != null)
+            BufferPool.Give(_current);
+        _current = null;
+        _position = 0;
+        if (_stream == null)
+            _queryCount = 0;
+    }
+
+    /// <summary>
+    /// Returns the chunks to the pool, like {@link #Reset}. Closing a streaming pipeline before it has been written
+    /// abandons it; whatever has been streamed already stays on the stream.
+    /// </summary>
+    @Override
+    public void close()
+    {
+        Reset();
+    }
+
+    /// <summary>Returns true if a streaming pipeline has sent part of its packet.</summary>
+    protected boolean isStarted()
+    {
+        return _started;
+    }
 
-        /// <summary>Append a query.</summary>
-        public void Push(Query query)
+    /// Copies encoded bytes into the chunks, completing and, when streaming, sending chunks as they fill up.
+    void Append(byte[] bytes, int offset, int length)
+    {
+        while (length > 0)
         {
-            _queryCount++;
-            query.WriteTo(_chain);
+            if (_current == null)
+            {
+                _current = BufferPool.TakeArray(CHUNK_SIZE);
+                _position = _stream == null && _chunks.isEmpty() ? HEADER_CAPACITY : 0;
+            }
+
+            var count = Math.min(length, CHUNK_SIZE - _position);
+            System.arraycopy(bytes, offset, _current, _position, count);
+            _position += count;
+            offset += count;
+            length -= count;
+
+            if (_position == CHUNK_SIZE)
+                Complete();
         }
+    }
 
-        /// <summary>Writes the pipeline to the specified stream.</summary>
-        public void WriteTo(Stream stream)
+    private void Complete()
+    {
+        if (_stream == null)
         {
-            var header = System.Text.Encoding.UTF8.GetBytes($"*{_queryCount}\n");
-            stream.Write(header);
-            stream.Write(_chain.ToArray(), 0, _chain.Count);
+            _chunks.add(_current);
+            _current = null;
+            return;
         }
 
-        /// <summary>Writes the pipeline to the specified stream asynchronously.</summary>
-        public async Task WriteToAsync(Stream stream)
+        try
+        {
+            Start();
+            _stream.write(_current);
+        }
+        catch (IOException e)
         {
-            var header = System.Text.Encoding.UTF8.GetBytes("*");
-            var newline = System.Text.Encoding.UTF8.GetBytes("\n");
-            await stream.WriteAsync(header);
-            await stream.WriteAsync(BitConverter.GetBytes(_queryCount));
-            await stream.WriteAsync(newline);
-            await stream.WriteAsync(_chain.ToArray(), 0, _chain.Count);
+            throw new UncheckedIOException(e);
         }
 
-        /// <summary>Returns the number of queries in the pipeline.</summary>
-        public int Count => _queryCount;
+        // The chunk has been handed to the stream, keep filling it.
+        _position = 0;
+    }
+
+    private void Start() throws IOException
+    {
+        if (_started)
+            return;
+
+        _stream.write(Header(_declaredCount));
+        _started = true;
+    }
+
+    private static byte[] Header(int count)
+    {
+        var header = new byte[Query.CountDigits(count) + 2];
+        header[0] = '*';
+        Query.WriteNumber(header, 1, count);
+        header[header.length - 1] = '\n';
+        return header;
     }
 }
@@ -0,0 +1,58 @@
+package tech.novoess.skytable4j.querying;
+
+/**
+ * <summary>
+ * A query template whose leading arguments, usually just the action, are fixed. They are encoded once when the
+ * template is created; starting a query from the template copies the encoded bytes instead of encoding them again,
+ * so only the variable arguments have to be pushed.
+ * Templates are immutable and can be shared between threads, the queries started from them cannot.
+ * </summary>
+ */
+public final class PreparedQuery
+{
+    public static final PreparedQuery GET  = new PreparedQuery("get");
+    public static final PreparedQuery SET  = new PreparedQuery("set");
+    public static final PreparedQuery DEL  = new PreparedQuery("del");
+    public static final PreparedQuery USET = new PreparedQuery("uset");
+    public static final PreparedQuery POP  = new PreparedQuery("pop");
+    public static final PreparedQuery USE  = new PreparedQuery("use");
+    public static final PreparedQuery HEYA = new PreparedQuery("heya");
+
+    private final byte[] _encoded;
+    private final short _argumentCount;
+
+    /// <summary>Creates a template for queries that start with the given arguments.</summary>
+    public PreparedQuery(String... arguments)
+    {
+        if (arguments.length == 0)
+            throw new IllegalArgumentException("A prepared query needs at least one argument.");
+
+        var query = new Query();
+        for (var argument : arguments)
+            query.Push(argument);
+
+        _encoded = query.EncodedArguments();
+        _argumentCount = query.getArgumentCount();
+    }
+
+    /// <summary>Returns the number of fixed arguments the queries start with.</summary>
+    public short getArgumentCount()
+    {
+        return _argumentCount;
+    }
+
+    /// <summary>Creates a new query that starts with the fixed arguments.</summary>
+    public Query Create()
+    {
+        var query = new Query();
+        query.Reset(_encoded, _argumentCount);
+        return query;
+    }
+
+    /// <summary>Starts the given query over with the fixed arguments, reusing its buffer, and returns it.</summary>
+    public Query Start(Query query)
+    {
+        query.Reset(_encoded, _argumentCount);
+        return query;
+    }
+}
@@ -1,15 +1,34 @@
 package tech.novoess.skytable4j.querying;
 
+import tech.novoess.skytable4j.buffers.BufferPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.stream.Stream;
+import java.util.Arrays;
 
 /**
- * <summary>This type represents a single simple query as defined by the Skyhash protocol.</summary>
+ * <summary>
+ * This type represents a single simple query as defined by the Skyhash protocol.
+ * The query is encoded in place into a single growable buffer as arguments are pushed. Room for the `*1\n~N\n` header
+ * is kept in front of the arguments and filled in when the query is written, so the whole packet goes out with one
+ * write. Call {@link #Reset()} to reuse the query, and its buffer, for the next one.
+ * </summary>
  */
 public class Query implements IQueryWriter
 {
+    private static final byte LINEFEED = 10;
+    private static final int DEFAULT_CAPACITY = 64;
+    // `*1\n~` followed by at most five digits and a line feed.
+    private static final int HEADER_CAPACITY = 10;
+    // A buffer that has grown beyond this goes back to the pool when the query is reset.
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+
     private short _sizeCount;
-    private byte[] _holdingBuffer;
+    private byte[] _buffer;
+    private final int _capacity;
+    private int _length;
+    private int _headerStart;
 
     /// <summary>Returns the argument count of the query.</summary>
     public short getArgumentCount() {
@@ -19,49 +38,157 @@ public class Query implements IQueryWriter
     /// <summary>Creates an empty query with a no arguments.</summary>
     public Query()
     {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /// <summary>Creates an empty query with room for the given number of argument bytes before it has to grow.</summary>
+    public Query(int capacity)
+    {
+        _capacity = HEADER_CAPACITY + capacity;
+        _buffer = new byte[_capacity];
+        Reset();
+    }
+
+    /// <summary>Removes all arguments, keeping the buffer for the next query unless a large value made it grow.</summary>
+    public void Reset()
+    {
+        if (_buffer.length > Math.max(_capacity, RETAINED_CAPACITY))
+        {
+            BufferPool.Give(_buffer);
+            _buffer = new byte[_capacity];
+        }
+
         _sizeCount = 0;
+        _length = HEADER_CAPACITY;
+        _headerStart = -1;
+    }
+
+    /// Starts the query over with arguments that have already been encoded, see {@link PreparedQuery}.
+    void Reset(byte[] encoded, short argumentCount)
+    {
+        Reset();
+        EnsureRemaining(encoded.length);
+        System.arraycopy(encoded, 0, _buffer, _length, encoded.length);
+        _length += encoded.length;
+        _sizeCount = argumentCount;
+    }
+
+    /// Returns a copy of the encoded arguments, without the header.
+    byte[] EncodedArguments()
+    {
+        return Arrays.copyOfRange(_buffer, HEADER_CAPACITY, _length);
     }
 
     /// <summary>Pushes an argument into the query.</summary>
     public void Push(String argument)
     {
-        var unicode_argument = argument.getBytes(StandardCharsets.UTF_8);
-        var header = unicode_argument.length +"\n";
-        var unicode_header = header.getBytes(StandardCharsets.UTF_8);
-        _holdingBuffer = new byte[unicode_header.length+unicode_argument.length+10];
-        _holdingBuffer.AddRange(unicode_header);
-        _holdingBuffer.AddRange(unicode_argument);
-        _holdingBuffer.Add(10);
-        _sizeCount++;
+        var length = argument.length();
+        for (int i = 0; i < length; i++)
+        {
+            if (argument.charAt(i) >= 0x80)
+            {
+                Push(argument.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+        }
+
+        // Pure ASCII, which keys and actions nearly always are, is encoded straight into the buffer.
+        var offset = PushHeader(length);
+        for (int i = 0; i < length; i++)
+            _buffer[offset + i] = (byte) argument.charAt(i);
+        _buffer[offset + length] = LINEFEED;
+        _length = offset + length + 1;
+    }
+
+    /// <summary>Pushes a binary argument into the query.</summary>
+    public void Push(byte[] argument)
+    {
+        var offset = PushHeader(argument.length);
+        System.arraycopy(argument, 0, _buffer, offset, argument.length);
+        _buffer[offset + argument.length] = LINEFEED;
+        _length = offset + argument.length + 1;
     }
 
     /// <summary>Writes the query to the specified stream.</summary>
-    public void WriteTo(Stream stream)
+    public void WriteTo(OutputStream stream) throws IOException
+    {
+        var start = EncodeHeader();
+        stream.write(_buffer, start, _length - start);
+    }
+
+    /// Appends the datagroup of the query, without the packet header, to the pipeline.
+    void WriteTo(Pipeline pipeline)
+    {
+        var start = EncodeHeader() + 3;
+        pipeline.Append(_buffer, start, _length - start);
+    }
+
+    /// Appends `<size>\n` for an argument of the given size, makes room for the argument and its line feed and
+    /// returns where the argument goes.
+    private int PushHeader(int size)
+    {
+        // The digits of the size, at most ten of them, its line feed, the argument and its line feed.
+        EnsureRemaining(size + 12);
+        var offset = WriteNumber(_buffer, _length, size);
+        _buffer[offset] = LINEFEED;
+        _sizeCount++;
+        _headerStart = -1;
+        return offset + 1;
+    }
+
+    /// Writes `*1\n~N\n` so that it ends right in front of the arguments and returns where it starts.
+    private int EncodeHeader()
     {
-        // TODO: Write everything at once?
-        var header = System.Text.Encoding.UTF8.GetBytes("*1\n");
-        stream.Write(header, 0, header.Length);
-        var numberOfItemsInDatagroup = System.Text.Encoding.UTF8.GetBytes($"~{_sizeCount}\n");
-        stream.Write(numberOfItemsInDatagroup, 0, numberOfItemsInDatagroup.Length);
-        stream.Write(_holdingBuffer.ToArray(), 0, _holdingBuffer.Count);
+        if (_headerStart >= 0)
+            return _headerStart;
+
+        var digits = CountDigits(_sizeCount);
+        var start = HEADER_CAPACITY - digits - 5;
+        _buffer[start] = '*';
+        _buffer[start + 1] = '1';
+        _buffer[start + 2] = LINEFEED;
+        _buffer[start + 3] = '~';
+        WriteNumber(_buffer, start + 4, _sizeCount);
+        _buffer[HEADER_CAPACITY - 1] = LINEFEED;
+        _headerStart = start;
+        return start;
     }
 
-    /// <summary>Writes the query to the specified list.</summary>
-    public void WriteTo(byte[] list)
+    private void EnsureRemaining(int count)
     {
-        var numberOfItemsInDatagroup = System.Text.Encoding.UTF8.GetBytes($"~{_sizeCount}\n");
-        list.AddRange(numberOfItemsInDatagroup);
-        list.AddRange(_holdingBuffer);
+        if (_buffer.length - _length >= count)
+            return;
+
+        var grown = BufferPool.TakeArray(Math.max(_buffer.length * 2, _length + count));
+        System.arraycopy(_buffer, 0, grown, 0, _length);
+        BufferPool.Give(_buffer);
+        _buffer = grown;
     }
 
-    /// <summary>Writes the query to the specified stream asynchronously.</summary>
-    public async Task WriteToAsync(Stream stream)
+    /// Writes the decimal digits of a non-negative number and returns the index right after them.
+    static int WriteNumber(byte[] buffer, int offset, int number)
     {
-        // TODO: Write everything at once?
-        var header = System.Text.Encoding.UTF8.GetBytes("*1\n");
-        await stream.WriteAsync(header, 0, header.Length);
-        var numberOfItemsInDatagroup = System.Text.Encoding.UTF8.GetBytes($"~{_sizeCount}\n");
-        await stream.WriteAsync(numberOfItemsInDatagroup, 0, numberOfItemsInDatagroup.Length);
-        await stream.WriteAsync(_holdingBuffer.ToArray(), 0, _holdingBuffer.Count);
+        var end = offset + CountDigits(number);
+        var i = end;
+        do
+        {
+            buffer[--i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        while (number != 0);
+
+        return end;
+    }
+
+    static int CountDigits(int number)
+    {
+        int digits = 1;
+        while (number >= 10)
+        {
+            number /= 10;
+            digits++;
+        }
+
+        return digits;
     }
 }
@@ -1,17 +1,26 @@
 package tech.novoess.skytable4j.querying;
 
-/// <summary>A Skytable query response code.</summary>
+/// <summary>A Skytable query response code. The codes without an error message are shared instances.</summary>
 public class ResponseCode
 {
+    private static final ResponseCode[] CODES = new ResponseCode[RespCode.values().length];
+
+    static
+    {
+        for (var respCode : RespCode.values())
+            CODES[respCode.value] = new ResponseCode(respCode);
+    }
+
     /// <summary>The actual response code.</summary>
-    public RespCode Code;
+    public final RespCode Code;
 
     /// <summary>A message from the server if the RespCode was <see cref="RespCode.OtherError" />.</summary>
-    public String Error;
+    public final String Error;
 
     private ResponseCode(RespCode code)
     {
         Code = code;
+        Error = null;
     }
 
     private ResponseCode(String error)
@@ -20,9 +29,31 @@ public class ResponseCode
         Error = error;
     }
 
-    static ResponseCode From(String code)
+    /// <summary>Returns the shared instance for the response code.</summary>
+    public static ResponseCode Of(RespCode code)
+    {
+        return CODES[code.value];
+    }
+
+    /// <summary>Maps a numeric code sent by the server onto its shared instance. Unknown codes become an <see cref="RespCode.OtherError" />.</summary>
+    public static ResponseCode From(int code)
+    {
+        if (code >= 0 && code < CODES.length)
+            return CODES[code];
+
+        return new ResponseCode(Integer.toString(code));
+    }
+
+    /// <summary>Maps the code sent by the server. Codes that are not numeric are error descriptions, see <see cref="RespCode.OtherError" />.</summary>
+    public static ResponseCode From(String code)
     {
-        return new ResponseCode(Enum.valueOf(RespCode.class, code));
+        for (var respCode : CODES)
+        {
+            if (Integer.toString(respCode.Code.value).equals(code))
+                return respCode;
+        }
+
+        return new ResponseCode(code);
     }
 
     @Override
@@ -0,0 +1,204 @@
+package tech.novoess.skytable4j.transport;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <summary>
+ * A single I/O thread that services any number of channels through one {@link Selector}.
+ * Registered channels are non-blocking; the loop calls their handler whenever they can be read or written, so no
+ * thread ever blocks on a socket. Work that has to touch the selector, such as registering a channel, is queued with
+ * {@link #Execute(Runnable)} and run on the loop thread.
+ * </summary>
+ */
+public final class EventLoop
+{
+    private final Selector _selector;
+    private final Thread _thread;
+    private final ConcurrentLinkedQueue<Runnable> _tasks;
+    private volatile boolean _running;
+
+    /// <summary>Creates and starts an event loop running on a daemon thread with the given name.</summary>
+    public EventLoop(String name) throws IOException
+    {
+        _selector = Selector.open();
+        _tasks = new ConcurrentLinkedQueue<>();
+        _running = true;
+        _thread = new Thread(this::Run, name);
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /// <summary>Returns the event loop shared by every connection that is not given one of its own.</summary>
+    public static EventLoop Default()
+    {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /// <summary>Returns true when called from the loop thread.</summary>
+    public boolean InLoop()
+    {
+        return Thread.currentThread() == _thread;
+    }
+
+    /// <summary>Runs the task on the loop thread, after the channels that are ready right now have been serviced.</summary>
+    public void Execute(Runnable task)
+    {
+        if (!_running)
+            throw new IllegalStateException("The event loop has been closed.");
+
+        _tasks.add(task);
+        // The loop may have stopped after the check, take the task back unless it has been run already.
+        if (!_running && _tasks.remove(task))
+            throw new IllegalStateException("The event loop has been closed.");
+        _selector.wakeup();
+    }
+
+    /// <summary>Stops the loop and closes its selector. Registered channels are not closed.</summary>
+    public void Close()
+    {
+        _running = false;
+        _selector.wakeup();
+    }
+
+    /// Registers the channel on the loop thread and completes with its key once that is done.
+    CompletableFuture<SelectionKey> Register(SelectableChannel channel, int ops, IChannelHandler handler)
+    {
+        var registered = new CompletableFuture<SelectionKey>();
+        Execute(() ->
+        {
+            try
+            {
+                registered.complete(channel.register(_selector, ops, handler));
+            }
+            catch (IOException | RuntimeException e)
+            {
+                registered.completeExceptionally(e);
+            }
+        });
+        return registered;
+    }
+
+    /// Wakes the selector so that a change of interest made from another thread is picked up right away.
+    void Wakeup()
+    {
+        if (!InLoop())
+            _selector.wakeup();
+    }
+
+    private void Run()
+    {
+        try
+        {
+            while (_running)
+            {
+                _selector.select();
+                RunTasks();
+
+                var selected = _selector.selectedKeys();
+                for (var key : selected)
+                    Dispatch(key);
+                selected.clear();
+            }
+        }
+        catch (IOException | ClosedSelectorException e)
+        {
+            // Handed to the channels below.
+        }
+        finally
+        {
+            // Still running means the loop died, its channels would never be serviced again.
+            var died = _running;
+            _running = false;
+            if (died)
+                FailChannels();
+            try
+            {
+                _selector.close();
+            }
+            catch (IOException e)
+            {
+                // Closing anyway.
+            }
+            // Registrations that are still queued fail on the closed selector.
+            RunTasks();
+        }
+    }
+
+    private void RunTasks()
+    {
+        Runnable task;
+        while ((task = _tasks.poll()) != null)
+        {
+            try
+            {
+                task.run();
+            }
+            catch (RuntimeException e)
+            {
+                // A failing task must not stop the loop or the tasks queued after it.
+            }
+        }
+    }
+
+    private void FailChannels()
+    {
+        for (var key : _selector.keys())
+        {
+            try
+            {
+                ((IChannelHandler) key.attachment()).OnError(new IOException("The event loop has stopped."));
+            }
+            catch (RuntimeException e)
+            {
+                // The channel is dropped with the selector either way.
+            }
+        }
+    }
+
+    private static void Dispatch(SelectionKey key)
+    {
+        var handler = (IChannelHandler) key.attachment();
+        try
+        {
+            if (key.isValid() && key.isWritable())
+                handler.OnWritable();
+            if (key.isValid() && key.isReadable())
+                handler.OnReadable();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            try
+            {
+                handler.OnError(e);
+            }
+            catch (RuntimeException failed)
+            {
+                // The handler could not clean up, at least stop selecting the channel.
+                key.cancel();
+            }
+        }
+    }
+
+    private static final class DefaultHolder
+    {
+        static final EventLoop INSTANCE = Create();
+
+        private static EventLoop Create()
+        {
+            try
+            {
+                return new EventLoop("skytable4j-io");
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Could not open a selector for the default event loop.", e);
+            }
+        }
+    }
+}
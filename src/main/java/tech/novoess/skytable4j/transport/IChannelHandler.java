@@ -0,0 +1,16 @@
+package tech.novoess.skytable4j.transport;
+
+import java.io.IOException;
+
+/**
+ * <summary>Handles the readiness events of a channel registered with an {@link EventLoop}. Always called on the loop thread.</summary>
+ */
+interface IChannelHandler
+{
+    void OnReadable() throws IOException;
+
+    void OnWritable() throws IOException;
+
+    /// Called when handling an event failed; the channel should be closed.
+    void OnError(Exception error);
+}
@@ -0,0 +1,29 @@
+package tech.novoess.skytable4j.transport;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * <summary>
+ * Receives what arrives on a transport. Called on the thread of the transport's {@link EventLoop}, except for
+ * {@link #OnClosed} after {@link SocketTransport#Close()}, which runs on the thread that closed it.
+ * </summary>
+ */
+public interface ITransportListener
+{
+    /**
+     * <summary>
+     * Bytes can be read from the channel. The channel is non-blocking: read until it returns 0, a read returning -1
+     * means the server closed the connection and should be reported by throwing an {@link java.io.EOFException}.
+     * </summary>
+     */
+    void OnReadable(ReadableByteChannel channel) throws IOException;
+
+    /**
+     * <summary>
+     * The transport was closed, by either side. The cause is null if it was closed on purpose, in which case this runs
+     * on the thread that called {@link SocketTransport#Close()}.
+     * </summary>
+     */
+    void OnClosed(Throwable cause);
+}
@@ -0,0 +1,493 @@
+package tech.novoess.skytable4j.transport;
+
+import tech.novoess.skytable4j.buffers.BufferPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * <summary>
+ * A non-blocking {@link SocketChannel} serviced by an {@link EventLoop}.
+ * Outgoing bytes are copied into a direct buffer borrowed from the {@link BufferPool} and written right away as far as the socket takes them; whatever is
+ * left is written by the loop once the socket can take more. Senders block while more than a high-water mark is
+ * waiting to go out, which bounds the memory a slow connection can hold on to. Incoming bytes are left to the
+ * {@link ITransportListener}, which reads them straight into its own buffer.
+ * A TLS transport finishes the handshake before it is registered, then encrypts into the same outbound buffer and
+ * hands the listener a channel that decrypts.
+ * </summary>
+ */
+public final class SocketTransport
+{
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    private static final int HIGH_WATER = 1024 * 1024;
+    // An outbound buffer that grew beyond this is swapped for a small one once it has been drained.
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+    // Stands in for the outbound buffer once it has been given back.
+    private static final ByteBuffer RELEASED = ByteBuffer.allocate(0);
+
+    private final EventLoop _loop;
+    private final SocketChannel _channel;
+    private final ITransportListener _listener;
+    // Null unless the transport uses TLS.
+    private final TlsSession _tls;
+    private final ReadableByteChannel _inbound;
+    private final ReentrantLock _lock;
+    private final Condition _drained;
+    private final AtomicBoolean _closed;
+    private final OutputStream _stream;
+    private volatile SelectionKey _key;
+    // How long a send waits for the outbound buffer to drain, or null to wait as long as the transport is open.
+    private volatile Duration _sendTimeout;
+    // Bytes waiting to be written, in write mode. Guarded by _lock.
+    private ByteBuffer _outbound;
+
+    private SocketTransport(EventLoop loop, SocketChannel channel, TlsSession tls, ITransportListener listener)
+    {
+        _loop = loop;
+        _channel = channel;
+        _listener = listener;
+        _tls = tls;
+        _inbound = tls == null ? channel : new TlsChannel();
+        _lock = new ReentrantLock();
+        _drained = _lock.newCondition();
+        _closed = new AtomicBoolean();
+        _stream = new TransportOutputStream();
+        _outbound = BufferPool.TakeBuffer(INITIAL_CAPACITY, true);
+    }
+
+    /// <summary>
+    /// Connects to the address and registers the connected channel with the loop. The address is either a host and
+    /// port or a {@link UnixDomainSocketAddress}, for a server on the same machine.
+    /// </summary>
+    public static SocketTransport Connect(SocketAddress address, EventLoop loop, ITransportListener listener) throws IOException
+    {
+        return Connect(address, null, null, loop, listener);
+    }
+
+    /// <summary>
+    /// Connects to the address, runs the TLS handshake and registers the channel with the loop. A session that the
+    /// context has cached for the same host and port is resumed.
+    /// </summary>
+    public static SocketTransport Connect(InetSocketAddress address, TlsContext tls, EventLoop loop, ITransportListener listener) throws IOException
+    {
+        return Connect(address, tls, null, loop, listener);
+    }
+
+    /// <summary>
+    /// Connects to the address, with TLS unless the context is null, and registers the channel with the loop. A
+    /// {@link SocketTimeoutException} is thrown if connecting and the handshake take longer than the timeout, unless it is null.
+    /// </summary>
+    public static SocketTransport Connect(SocketAddress address, TlsContext context, Duration timeout, EventLoop loop, ITransportListener listener) throws IOException
+    {
+        return Connect(address, context, timeout, Map.of(StandardSocketOptions.TCP_NODELAY, true), loop, listener);
+    }
+
+    /// <summary>
+    /// Connects like the overload without options, after setting the given socket options on the channel. Options the
+    /// channel does not support, such as TCP_NODELAY on a Unix domain socket, are skipped.
+    /// </summary>
+    public static SocketTransport Connect(SocketAddress address, TlsContext context, Duration timeout, Map<SocketOption<?>, Object> options,
+                                          EventLoop loop, ITransportListener listener) throws IOException
+    {
+        var unix = address instanceof UnixDomainSocketAddress;
+        var channel = unix ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
+        // Closing the channel is the one way to stop a blocking connect or handshake, so that is what the deadline does.
+        var connected = new CompletableFuture<Void>();
+        if (timeout != null)
+        {
+            connected.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS).whenComplete((ignored, error) ->
+            {
+                if (error != null)
+                    CloseQuietly(channel);
+            });
+        }
+
+        TlsSession tls = null;
+        try
+        {
+            for (var option : options.entrySet())
+                SetOption(channel, option.getKey(), option.getValue());
+            channel.connect(address);
+            if (context != null)
+            {
+                var server = (InetSocketAddress) address;
+                tls = new TlsSession(context.CreateEngine(server.getHostString(), server.getPort()));
+                tls.Handshake(channel);
+            }
+            if (!connected.complete(null))
+                throw new ClosedChannelException();
+            channel.configureBlocking(false);
+
+            var transport = new SocketTransport(loop, channel, tls, listener);
+            transport._key = loop.Register(channel, SelectionKey.OP_READ, transport.new Handler()).get();
+            return transport;
+        }
+        catch (InterruptedException e)
+        {
+            Abandon(channel, tls);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while registering the channel.");
+        }
+        catch (ExecutionException e)
+        {
+            Abandon(channel, tls);
+            throw new IOException("Could not register the channel.", e.getCause());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Abandon(channel, tls);
+            if (connected.isCompletedExceptionally())
+                throw new SocketTimeoutException("Connecting to " + address + " took longer than " + timeout + ".");
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void SetOption(SocketChannel channel, SocketOption<?> option, Object value) throws IOException
+    {
+        if (channel.supportedOptions().contains(option))
+            channel.setOption((SocketOption<Object>) option, value);
+    }
+
+    private static void CloseQuietly(SocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            // Closing anyway.
+        }
+    }
+
+    private static void Abandon(SocketChannel channel, TlsSession tls) throws IOException
+    {
+        if (tls != null)
+            tls.Release();
+        channel.close();
+    }
+
+    /// <summary>Returns true until the transport has been closed.</summary>
+    public boolean IsOpen()
+    {
+        return !_closed.get();
+    }
+
+    /// <summary>Returns a stream that sends everything written to it. Writes block while too much is waiting to be sent.</summary>
+    public OutputStream getOutputStream()
+    {
+        return _stream;
+    }
+
+    /// <summary>
+    /// Sets how long a send may block while too much is waiting to be sent. A send that is still blocked then fails
+    /// with a {@link SocketTimeoutException} and closes the transport. Null, the default, blocks until the server takes
+    /// the bytes or the transport is closed.
+    /// </summary>
+    public void setSendTimeout(Duration timeout)
+    {
+        _sendTimeout = timeout;
+    }
+
+    /// <summary>Sends the bytes, blocking only while too much is already waiting to be sent, for at most the send timeout.</summary>
+    public void Send(byte[] bytes, int offset, int length) throws IOException
+    {
+        var timeout = _sendTimeout;
+        _lock.lock();
+        try
+        {
+            var remaining = timeout != null ? timeout.toNanos() : Long.MAX_VALUE;
+            while (IsOpen() && _outbound.position() >= HIGH_WATER)
+            {
+                if (remaining <= 0)
+                    throw new SocketTimeoutException("The server has not taken what was sent within " + timeout + ".");
+                remaining = _drained.awaitNanos(remaining);
+            }
+            if (!IsOpen())
+                throw new ClosedChannelException();
+
+            if (_tls == null)
+            {
+                EnsureRemaining(length);
+                _outbound.put(bytes, offset, length);
+            }
+            else
+            {
+                Encrypt(ByteBuffer.wrap(bytes, offset, length));
+            }
+            Flush();
+        }
+        catch (ClosedChannelException e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            Close(e);
+            throw e;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send.");
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /// <summary>Closes the channel. The listener is told once, with a null cause, on the calling thread.</summary>
+    public void Close()
+    {
+        Close(null);
+    }
+
+    private void Close(Throwable cause)
+    {
+        if (!_closed.compareAndSet(false, true))
+            return;
+
+        _lock.lock();
+        try
+        {
+            _drained.signalAll();
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+
+        if (_key != null)
+            _key.cancel();
+        if (_tls != null)
+            CloseTls();
+        try
+        {
+            _channel.close();
+        }
+        catch (IOException e)
+        {
+            // Closing anyway.
+        }
+
+        _lock.lock();
+        try
+        {
+            BufferPool.Give(_outbound);
+            _outbound = RELEASED;
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+        _listener.OnClosed(cause);
+    }
+
+    /// Sends close_notify if the socket takes it right away and gives the buffers back once the loop is done with them.
+    private void CloseTls()
+    {
+        _lock.lock();
+        try
+        {
+            _tls.CloseOutbound();
+            _outbound.clear();
+            EnsureRemaining(_tls.getPacketSize());
+            _tls.Wrap(TlsSession.EMPTY, _outbound);
+            _outbound.flip();
+            _channel.write(_outbound);
+            _outbound.clear();
+        }
+        catch (IOException e)
+        {
+            // Closing anyway.
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+
+        try
+        {
+            _loop.Execute(_tls::Release);
+        }
+        catch (IllegalStateException e)
+        {
+            // The loop is gone, the buffers are left to the garbage collector.
+        }
+    }
+
+    /// Wraps the plaintext into records in the outbound buffer. Called with the lock held.
+    private void Encrypt(ByteBuffer plaintext) throws IOException
+    {
+        while (plaintext.hasRemaining())
+        {
+            EnsureRemaining(_tls.getPacketSize());
+            var result = _tls.Wrap(plaintext, _outbound);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                throw new SSLException("The TLS session has been closed.");
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+                throw new SSLException("The server asked for a renegotiation, which is not supported.");
+        }
+    }
+
+    /// Sends the handshake or alert messages that unwrapping asked for, such as a key update.
+    private void WrapPending() throws IOException
+    {
+        _lock.lock();
+        try
+        {
+            if (!IsOpen())
+                return;
+            while (_tls.NeedsWrap())
+            {
+                EnsureRemaining(_tls.getPacketSize());
+                if (_tls.Wrap(TlsSession.EMPTY, _outbound).bytesProduced() == 0)
+                    break;
+            }
+            Flush();
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /// Writes as much of the outbound buffer as the socket takes and asks the loop to write the rest. Called with the lock held.
+    private void Flush() throws IOException
+    {
+        _outbound.flip();
+        _channel.write(_outbound);
+        _outbound.compact();
+
+        if (_outbound.position() == 0)
+        {
+            _key.interestOps(SelectionKey.OP_READ);
+            if (_outbound.capacity() > RETAINED_CAPACITY)
+            {
+                BufferPool.Give(_outbound);
+                _outbound = BufferPool.TakeBuffer(INITIAL_CAPACITY, true);
+            }
+        }
+        else if ((_key.interestOps() & SelectionKey.OP_WRITE) == 0)
+        {
+            _key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            _loop.Wakeup();
+        }
+
+        if (_outbound.position() < HIGH_WATER)
+            _drained.signalAll();
+    }
+
+    private void EnsureRemaining(int count)
+    {
+        if (_outbound.remaining() >= count)
+            return;
+
+        var grown = BufferPool.TakeBuffer(Math.max(_outbound.capacity() * 2, _outbound.position() + count), true);
+        _outbound.flip();
+        grown.put(_outbound);
+        BufferPool.Give(_outbound);
+        _outbound = grown;
+    }
+
+    private final class Handler implements IChannelHandler
+    {
+        @Override
+        public void OnReadable() throws IOException
+        {
+            _listener.OnReadable(_inbound);
+        }
+
+        @Override
+        public void OnWritable() throws IOException
+        {
+            _lock.lock();
+            try
+            {
+                if (IsOpen())
+                    Flush();
+            }
+            finally
+            {
+                _lock.unlock();
+            }
+        }
+
+        @Override
+        public void OnError(Exception error)
+        {
+            Close(error);
+        }
+    }
+
+    /// The channel a TLS listener reads from; only used on the loop thread.
+    private final class TlsChannel implements ReadableByteChannel
+    {
+        @Override
+        public int read(ByteBuffer destination) throws IOException
+        {
+            var read = _tls.Read(_channel, destination);
+            if (_tls.NeedsWrap())
+                WrapPending();
+            return read;
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return _channel.isOpen();
+        }
+
+        @Override
+        public void close()
+        {
+            Close();
+        }
+    }
+
+    private final class TransportOutputStream extends OutputStream
+    {
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            Send(b, off, len);
+        }
+
+        @Override
+        public void close()
+        {
+            Close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package tech.novoess.skytable4j.transport;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * <summary>
+ * The TLS settings shared by every connection to the same servers. The client session cache lives in the
+ * {@link SSLContext}, so connections created from one context resume the sessions of earlier ones and skip the full
+ * handshake when a pool refills or reconnects.
+ * </summary>
+ */
+public final class TlsContext
+{
+    private static final ConcurrentHashMap<String, TlsContext> BY_CERTIFICATE = new ConcurrentHashMap<>();
+
+    private final SSLContext _context;
+
+    /// <summary>Creates a context that uses the given, initialized SSL context.</summary>
+    public TlsContext(SSLContext context)
+    {
+        _context = context;
+    }
+
+    /// <summary>
+    /// Returns the context that trusts the certificates in the given PEM or DER file, such as the self-signed
+    /// certificate of a Skytable instance. Every call with the same path returns the same context.
+    /// </summary>
+    public static TlsContext FromCertificate(String certPath) throws IOException
+    {
+        try
+        {
+            return BY_CERTIFICATE.computeIfAbsent(certPath, path ->
+            {
+                try
+                {
+                    return new TlsContext(Trusting(path));
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    /// <summary>Returns the SSL context that the engines are created from.</summary>
+    public SSLContext getSslContext()
+    {
+        return _context;
+    }
+
+    /// Creates a client engine for the server, which lets the session cache find an earlier session with it. The
+    /// server's certificate has to be issued for the host, not just be trusted.
+    SSLEngine CreateEngine(String host, int port)
+    {
+        var engine = _context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        var parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    private static SSLContext Trusting(String certPath) throws IOException
+    {
+        try (var stream = new FileInputStream(certPath))
+        {
+            var trusted = KeyStore.getInstance(KeyStore.getDefaultType());
+            trusted.load(null, null);
+            var index = 0;
+            for (var certificate : CertificateFactory.getInstance("X.509").generateCertificates(stream))
+                trusted.setCertificateEntry("skytable-" + index++, certificate);
+
+            var trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(trusted);
+            var context = SSLContext.getInstance("TLS");
+            context.init(null, trustManagers.getTrustManagers(), null);
+            return context;
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IOException("Could not load the certificate " + certPath + ".", e);
+        }
+    }
+}
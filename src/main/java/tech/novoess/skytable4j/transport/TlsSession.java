@@ -0,0 +1,231 @@
+package tech.novoess.skytable4j.transport;
+
+import tech.novoess.skytable4j.buffers.BufferPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+
+/**
+ * <summary>
+ * The TLS state of one transport: an {@link SSLEngine} with the encrypted bytes read from the socket and the decrypted
+ * bytes the listener has not taken yet. Outgoing records are wrapped straight into the transport's outbound buffer.
+ * Both buffers are borrowed from the {@link BufferPool} and given back when the transport is closed.
+ * </summary>
+ */
+final class TlsSession
+{
+    static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SSLEngine _engine;
+    // Encrypted bytes read from the socket, in write mode.
+    private ByteBuffer _netIn;
+    // Decrypted bytes the listener has not read yet, in write mode.
+    private ByteBuffer _appIn;
+    private boolean _eof;
+
+    TlsSession(SSLEngine engine)
+    {
+        _engine = engine;
+        _netIn = Take(engine.getSession().getPacketBufferSize());
+        _appIn = Take(engine.getSession().getApplicationBufferSize());
+    }
+
+    /// Returns the space a wrapped record may need.
+    int getPacketSize()
+    {
+        return _engine.getSession().getPacketBufferSize();
+    }
+
+    /// Returns true when the engine has a handshake or alert message to send.
+    boolean NeedsWrap()
+    {
+        return _engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP;
+    }
+
+    /// Runs the handshake over a channel that is still blocking. Records that arrive after it are kept for Read.
+    void Handshake(SocketChannel channel) throws IOException
+    {
+        var netOut = Take(getPacketSize());
+        try
+        {
+            _engine.beginHandshake();
+            var status = _engine.getHandshakeStatus();
+            while (status != HandshakeStatus.FINISHED && status != HandshakeStatus.NOT_HANDSHAKING)
+            {
+                switch (status)
+                {
+                    case NEED_WRAP:
+                    {
+                        netOut.clear();
+                        var result = Wrap(EMPTY, netOut);
+                        if (result.getStatus() != SSLEngineResult.Status.OK)
+                            throw new SSLHandshakeException("The handshake could not be sent: " + result.getStatus());
+                        netOut.flip();
+                        while (netOut.hasRemaining())
+                            channel.write(netOut);
+                        status = result.getHandshakeStatus();
+                        break;
+                    }
+                    case NEED_UNWRAP:
+                    case NEED_UNWRAP_AGAIN:
+                    {
+                        _netIn.flip();
+                        var result = _engine.unwrap(_netIn, _appIn);
+                        _netIn.compact();
+                        switch (result.getStatus())
+                        {
+                            case CLOSED:
+                                throw new SSLHandshakeException("The server closed the session during the handshake.");
+                            case BUFFER_OVERFLOW:
+                                // Nothing reads the decrypted bytes before the handshake is done, make room for the record.
+                                _appIn = Grow(_appIn, _engine.getSession().getApplicationBufferSize());
+                                break;
+                            case BUFFER_UNDERFLOW:
+                                if (!_netIn.hasRemaining())
+                                    _netIn = Grow(_netIn, getPacketSize());
+                                if (channel.read(_netIn) < 0)
+                                    throw new EOFException("The server closed the connection during the handshake.");
+                                break;
+                            default:
+                                break;
+                        }
+                        status = result.getHandshakeStatus();
+                        break;
+                    }
+                    case NEED_TASK:
+                    {
+                        RunTasks();
+                        status = _engine.getHandshakeStatus();
+                        break;
+                    }
+                    default:
+                        throw new SSLHandshakeException("Unexpected handshake status " + status);
+                }
+            }
+        }
+        finally
+        {
+            Free(netOut);
+        }
+    }
+
+    /// Encrypts as much of the source as fits into the destination, or the pending handshake message if it is empty.
+    SSLEngineResult Wrap(ByteBuffer source, ByteBuffer destination) throws SSLException
+    {
+        var result = _engine.wrap(source, destination);
+        if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+            RunTasks();
+        return result;
+    }
+
+    /// Reads decrypted bytes like a non-blocking channel: 0 if a whole record has not arrived yet, -1 once the server closed.
+    int Read(ReadableByteChannel channel, ByteBuffer destination) throws IOException
+    {
+        if (_appIn.position() == 0)
+        {
+            // A record larger than the buffer would never arrive in full.
+            if (!_netIn.hasRemaining())
+                _netIn = Grow(_netIn, getPacketSize());
+            if (!_eof && channel.read(_netIn) < 0)
+                _eof = true;
+            Unwrap();
+            if (_appIn.position() == 0)
+                return _eof ? -1 : 0;
+        }
+
+        _appIn.flip();
+        var count = Math.min(_appIn.remaining(), destination.remaining());
+        destination.put(_appIn.slice(_appIn.position(), count));
+        _appIn.position(_appIn.position() + count);
+        _appIn.compact();
+        return count;
+    }
+
+    /// Marks the session closed, after which wrapping produces the close_notify alert.
+    void CloseOutbound()
+    {
+        _engine.closeOutbound();
+    }
+
+    /// Returns the buffers to the pool. Called on the loop thread once the channel will not be read again.
+    void Release()
+    {
+        Free(_netIn);
+        Free(_appIn);
+        _netIn = null;
+        _appIn = null;
+    }
+
+    /// Decrypts every whole record that has been read and fits.
+    private void Unwrap() throws IOException
+    {
+        _netIn.flip();
+        try
+        {
+            while (_netIn.hasRemaining())
+            {
+                var result = _engine.unwrap(_netIn, _appIn);
+                switch (result.getStatus())
+                {
+                    case BUFFER_UNDERFLOW:
+                        return;
+                    case BUFFER_OVERFLOW:
+                        if (_appIn.position() > 0)
+                            return;
+                        _appIn = Grow(_appIn, _engine.getSession().getApplicationBufferSize());
+                        continue;
+                    case CLOSED:
+                        _eof = true;
+                        return;
+                    default:
+                        break;
+                }
+
+                if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+                    RunTasks();
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+                    return;
+            }
+        }
+        finally
+        {
+            _netIn.compact();
+        }
+    }
+
+    private void RunTasks()
+    {
+        Runnable task;
+        while ((task = _engine.getDelegatedTask()) != null)
+            task.run();
+    }
+
+    /// Replaces a buffer in write mode with a larger one holding the same bytes.
+    private static ByteBuffer Grow(ByteBuffer buffer, int size)
+    {
+        var grown = Take(Math.max(size, buffer.capacity() * 2));
+        buffer.flip();
+        grown.put(buffer);
+        Free(buffer);
+        return grown;
+    }
+
+    private static ByteBuffer Take(int size)
+    {
+        return BufferPool.TakeBuffer(size, true);
+    }
+
+    private static void Free(ByteBuffer buffer)
+    {
+        if (buffer != null)
+            BufferPool.Give(buffer);
+    }
+}
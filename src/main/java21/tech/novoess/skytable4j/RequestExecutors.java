@@ -0,0 +1,36 @@
+package tech.novoess.skytable4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <summary>
+ * Executors for running blocking client calls, one task per request. This is the Java 21 version of the class, which
+ * starts a virtual thread per task; the blocking paths of {@link Connection} and {@link ConnectionPool} only park on
+ * locks and futures, so they never pin the carrier thread.
+ * </summary>
+ */
+public final class RequestExecutors
+{
+    private RequestExecutors()
+    {
+    }
+
+    /// <summary>Returns whether {@link #PerRequest()} runs every task on its own virtual thread.</summary>
+    public static boolean IsVirtual()
+    {
+        return true;
+    }
+
+    /// Returns whether the calling thread is a virtual thread.
+    static boolean OnVirtualThread()
+    {
+        return Thread.currentThread().isVirtual();
+    }
+
+    /// <summary>Creates an executor that starts a virtual thread for every request.</summary>
+    public static ExecutorService PerRequest()
+    {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("skytable4j-request-", 0).factory());
+    }
+}
@@ -0,0 +1,20 @@
+package tech.novoess.skytable4j.buffers;
+
+/**
+ * <summary>
+ * What the pool needs to know about the calling thread. This is the Java 21 version of the class, which recognises
+ * virtual threads.
+ * </summary>
+ */
+final class CurrentThread
+{
+    private CurrentThread()
+    {
+    }
+
+    /// Returns whether the calling thread is a virtual thread.
+    static boolean IsVirtual()
+    {
+        return Thread.currentThread().isVirtual();
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tech.novoess.skytable4j.buffers.BufferPool;
+import tech.novoess.skytable4j.parsing.Parser;
+
+import java.nio.charset.StandardCharsets;
+
+
+public class BufferPoolTest {
+
+    @Test
+    public void SizesAreRoundedUpToAClass() {
+        Assertions.assertEquals(512, BufferPool.SizeOf(1));
+        Assertions.assertEquals(1024, BufferPool.SizeOf(1000));
+        Assertions.assertEquals(1536, BufferPool.SizeOf(1025));
+        Assertions.assertEquals(24 * 1024, BufferPool.SizeOf(16709));
+        Assertions.assertEquals(1024 * 1024, BufferPool.SizeOf(1024 * 1024));
+        Assertions.assertEquals(1024 * 1024 + 1, BufferPool.SizeOf(1024 * 1024 + 1));
+
+        Assertions.assertEquals(1024, BufferPool.TakeArray(1000).length);
+        Assertions.assertTrue(BufferPool.TakeBuffer(1000, true).isDirect());
+        Assertions.assertFalse(BufferPool.TakeBuffer(1000, false).isDirect());
+    }
+
+    @Test
+    public void ReturnedBuffersAreReused() {
+        var array = BufferPool.TakeArray(3000);
+        BufferPool.Give(array);
+        Assertions.assertSame(array, BufferPool.TakeArray(3000));
+
+        var buffer = BufferPool.TakeBuffer(3000, true);
+        buffer.put((byte) 1);
+        BufferPool.Give(buffer);
+        var again = BufferPool.TakeBuffer(2500, true);
+        Assertions.assertSame(buffer, again);
+        Assertions.assertEquals(0, again.position());
+
+        // Only buffers of a class size are taken back.
+        var odd = new byte[3000];
+        BufferPool.Give(odd);
+        Assertions.assertNotSame(odd, BufferPool.TakeArray(3000));
+    }
+
+    @Test
+    public void LargeBuffersAreSharedBetweenThreads() throws Exception {
+        // Above the thread cache, a buffer given back on one thread is taken by the next.
+        var array = BufferPool.TakeArray(768 * 1024);
+        var giver = new Thread(() -> BufferPool.Give(array));
+        giver.start();
+        giver.join();
+        Assertions.assertSame(array, BufferPool.TakeArray(768 * 1024));
+    }
+
+    @Test
+    public void ParserKeepsWorkingAcrossBufferSwaps() {
+        var parser = new Parser(1024);
+        var large = "x".repeat(512 * 1024);
+        var response = "*1\n+" + large.length() + "\n" + large + "\n";
+        parser.Feed(response.getBytes(StandardCharsets.US_ASCII), 0, response.length());
+        Assertions.assertEquals(large, parser.Parse().Item.AsString());
+
+        var small = "*1\n+5\nhello\n".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < 200; i++) {
+            parser.Feed(small, 0, small.length);
+            Assertions.assertEquals("hello", parser.Parse().Item.AsString());
+        }
+
+        // A recycled parser takes a new buffer when it is fed again.
+        parser.Recycle();
+        parser.Feed(small, 0, small.length);
+        Assertions.assertEquals("hello", parser.Parse().Item.AsString());
+    }
+}
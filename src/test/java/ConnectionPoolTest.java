@@ -0,0 +1,381 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tech.novoess.skytable4j.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class ConnectionPoolTest {
+
+    @Test
+    public void BorrowerWaitsForAReturnedConnection() throws Exception {
+        var executor = RequestExecutors.PerRequest();
+        try (var server = new FakeSkytable()) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.Initialize(1);
+
+                var first = pool.Connection();
+                var second = executor.submit(() -> pool.Connection());
+                Assertions.assertThrows(TimeoutException.class, () -> second.get(100, TimeUnit.MILLISECONDS));
+
+                first.Dispose();
+                var connection = second.get(10, TimeUnit.SECONDS);
+                Assertions.assertEquals("key", connection.Get("key").Item.AsString());
+                connection.Dispose();
+
+                Assertions.assertEquals(0, pool.getBorrowedCount());
+                Assertions.assertEquals(1, server.Connections.get());
+            }
+            finally {
+                pool.Close();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void DisposingTwiceDoesNotReleaseTheNextBorrowersConnection() throws Exception {
+        var executor = RequestExecutors.PerRequest();
+        try (var server = new FakeSkytable()) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.Initialize(1);
+
+                var first = pool.Connection();
+                var second = executor.submit(() -> pool.Connection());
+                for (int i = 0; i < 1000 && pool.getWaitingCount() == 0; i++)
+                    Thread.sleep(1);
+
+                first.Dispose();
+                var connection = second.get(10, TimeUnit.SECONDS);
+                // The connection belongs to the second borrower now, disposing the first one again must not give it back.
+                first.Dispose();
+                Assertions.assertEquals(1, pool.getBorrowedCount());
+                Assertions.assertThrows(PoolTimeoutException.class, () -> pool.Connection(Duration.ofMillis(50)));
+
+                connection.Dispose();
+                Assertions.assertEquals(0, pool.getBorrowedCount());
+            }
+            finally {
+                pool.Close();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void WaitingBorrowersAreServedInArrivalOrder() throws Exception {
+        var executor = RequestExecutors.PerRequest();
+        try (var server = new FakeSkytable()) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.Initialize(1);
+
+                var first = pool.Connection();
+                var served = new CopyOnWriteArrayList<Integer>();
+                var borrowers = new ArrayList<Future<?>>();
+                for (int i = 0; i < 4; i++) {
+                    var index = i;
+                    borrowers.add(executor.submit(() -> {
+                        var connection = pool.Connection();
+                        served.add(index);
+                        connection.Dispose();
+                        return null;
+                    }));
+                    // Let each borrower queue up before the next one arrives.
+                    while (pool.getWaitingCount() < i + 1)
+                        Thread.onSpinWait();
+                }
+
+                first.Dispose();
+                for (var borrower : borrowers)
+                    borrower.get(10, TimeUnit.SECONDS);
+
+                Assertions.assertEquals(List.of(0, 1, 2, 3), served);
+                Assertions.assertEquals(0, pool.getBorrowedCount());
+                Assertions.assertEquals(1, server.Connections.get());
+            }
+            finally {
+                pool.Close();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void BorrowerGivesUpAfterMaxWait() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.MaxWait = Duration.ofMillis(50);
+                pool.Initialize(1);
+
+                var first = pool.Connection();
+                Assertions.assertThrows(PoolTimeoutException.class, pool::Connection);
+                Assertions.assertEquals(0, pool.getWaitingCount());
+
+                first.Dispose();
+                var second = pool.Connection();
+                Assertions.assertEquals("key", second.Get("key").Item.AsString());
+                second.Dispose();
+            }
+            finally {
+                pool.Close();
+            }
+        }
+    }
+
+    @Test
+    public void BorrowerFailsWhenItsConnectionCannotBeOpened() throws Exception {
+        // Drops every connection before it is switched to the entity.
+        try (var server = new FakeSkytable(query -> { throw new IllegalStateException("unavailable"); })) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.Initialize(0, 1);
+
+                // The borrower is told why instead of waiting out its maximum wait.
+                var started = System.nanoTime();
+                var error = Assertions.assertThrows(IOException.class, () -> pool.Connection(Duration.ofSeconds(30)));
+                Assertions.assertNotNull(error.getCause());
+                Assertions.assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(10));
+                Assertions.assertEquals(0, pool.getWaitingCount());
+                // A retry may have started before the borrower stopped waiting, it fails the same way.
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (pool.getCount() > 0 && System.nanoTime() < deadline)
+                    Thread.sleep(10);
+                Assertions.assertEquals(0, pool.getCount());
+            }
+            finally {
+                pool.Close();
+            }
+        }
+    }
+
+    @Test
+    public void ConnectionsAreOpenedInParallel() throws Exception {
+        try (var server = new FakeSkytable(query -> {
+            if (query.get(0).equals("use"))
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+            return FakeSkytable.Default(query);
+        })) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                var started = System.nanoTime();
+                pool.Initialize(8);
+                // One after the other this would take 8 * 200 ms.
+                Assertions.assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(1200));
+                Assertions.assertEquals(8, server.Connections.get());
+            }
+            finally {
+                pool.Close();
+            }
+        }
+    }
+
+    @Test
+    public void PoolGrowsOnDemandAndShrinksWhenIdle() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.IdleTimeout = Duration.ofMillis(100);
+                pool.MaxWait = Duration.ofSeconds(10);
+                pool.Initialize(1, 3);
+
+                var borrowed = new ArrayList<PooledConnection>();
+                for (int i = 0; i < 3; i++)
+                    borrowed.add(pool.Connection());
+                Assertions.assertEquals(3, pool.getCount());
+                Assertions.assertEquals(3, server.Connections.get());
+                Assertions.assertThrows(PoolTimeoutException.class, () -> pool.Connection(Duration.ofMillis(50)));
+
+                for (var connection : borrowed)
+                    connection.Dispose();
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (pool.getCount() > 1 && System.nanoTime() < deadline)
+                    Thread.sleep(20);
+                Assertions.assertEquals(1, pool.getCount());
+            }
+            finally {
+                pool.Close();
+            }
+        }
+    }
+
+    @Test
+    public void DeadConnectionsAreReplacedInTheBackground() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.MaxWait = Duration.ofSeconds(10);
+                pool.Initialize(1);
+
+                var borrowed = pool.Connection();
+                server.DropConnections();
+                Assertions.assertThrows(Exception.class, () -> borrowed.Get("key"));
+                // Returning a dead connection does not wait for its replacement.
+                borrowed.Dispose();
+
+                var connection = pool.Connection();
+                Assertions.assertEquals("key", connection.Get("key").Item.AsString());
+                connection.Dispose();
+                Assertions.assertEquals(1, pool.getCount());
+                Assertions.assertEquals(2, server.Connections.get());
+            }
+            finally {
+                pool.Close();
+            }
+        }
+    }
+
+    @Test
+    public void ConcurrentBorrowersKeepTheCountsExact() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.MaxWait = Duration.ofSeconds(10);
+                pool.Initialize(4);
+
+                var threads = new ArrayList<Thread>();
+                var failures = new CopyOnWriteArrayList<Throwable>();
+                for (int t = 0; t < 16; t++) {
+                    var thread = new Thread(() -> {
+                        try {
+                            for (int i = 0; i < 200; i++) {
+                                var connection = pool.Connection();
+                                if (i % 20 == 0)
+                                    Assertions.assertEquals("key", connection.Get("key").Item.AsString());
+                                connection.Dispose();
+                            }
+                        }
+                        catch (Throwable e) {
+                            failures.add(e);
+                        }
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+                for (var thread : threads)
+                    thread.join();
+
+                Assertions.assertTrue(failures.isEmpty(), () -> failures.toString());
+                Assertions.assertEquals(0, pool.getBorrowedCount());
+                Assertions.assertEquals(0, pool.getWaitingCount());
+                Assertions.assertEquals(4, pool.getCount());
+                Assertions.assertEquals(4, server.Connections.get());
+            }
+            finally {
+                pool.Close();
+            }
+        }
+    }
+
+    @Test
+    public void ClosedConnectionsAreDroppedBeforeTheyAreBorrowed() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.MaxWait = Duration.ofSeconds(10);
+                pool.Initialize(2);
+
+                server.DropConnections();
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (server.Connections.get() < 4 && System.nanoTime() < deadline)
+                    Thread.sleep(10);
+
+                var first = pool.Connection();
+                var second = pool.Connection();
+                Assertions.assertEquals("key", first.Get("key").Item.AsString());
+                Assertions.assertEquals("key", second.Get("key").Item.AsString());
+                first.Dispose();
+                second.Dispose();
+                Assertions.assertEquals(2, pool.getCount());
+            }
+            finally {
+                pool.Close();
+            }
+        }
+    }
+
+    @Test
+    public void HeartbeatsReplaceHalfOpenConnections() throws Exception {
+        var silent = new AtomicBoolean();
+        try (var server = new FakeSkytable(query -> {
+            // A server that is gone without closing the socket never answers.
+            if (query.get(0).equals("heya") && silent.get())
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(30));
+            return FakeSkytable.Default(query);
+        })) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.MaxWait = Duration.ofSeconds(10);
+                pool.HeartbeatInterval = Duration.ofMillis(100);
+                pool.HeartbeatTimeout = Duration.ofMillis(100);
+                pool.Initialize(1);
+
+                silent.set(true);
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (server.Connections.get() < 2 && System.nanoTime() < deadline)
+                    Thread.sleep(10);
+                silent.set(false);
+
+                Assertions.assertTrue(server.Connections.get() >= 2);
+                var connection = pool.Connection();
+                Assertions.assertEquals("key", connection.Get("key").Item.AsString());
+                connection.Dispose();
+            }
+            finally {
+                pool.Close();
+            }
+        }
+    }
+
+    @Test
+    public void BorrowersPreferAConnectionOnTheirEntity() throws Exception {
+        var uses = new AtomicInteger();
+        try (var server = new FakeSkytable(query -> {
+            if (query.get(0).equals("use"))
+                uses.incrementAndGet();
+            return FakeSkytable.Default(query);
+        })) {
+            var pool = new ConnectionPool("127.0.0.1", server.Port(), "space", "table", false);
+            try {
+                pool.Initialize(2);
+                Assertions.assertEquals(2, uses.get());
+
+                var other = pool.Connection("space", "other");
+                Assertions.assertEquals("space:other", other.getEntity());
+                Assertions.assertEquals(3, uses.get());
+                other.Dispose();
+
+                // Both find a connection on their entity, so no USE is sent.
+                var again = pool.Connection("space", "other");
+                var pooled = pool.Connection();
+                Assertions.assertEquals("space:other", again.getEntity());
+                Assertions.assertEquals("space:table", pooled.getEntity());
+                Assertions.assertEquals(3, uses.get());
+                again.Dispose();
+                pooled.Dispose();
+            }
+            finally {
+                pool.Close();
+            }
+        }
+    }
+}
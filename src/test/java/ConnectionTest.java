@@ -1,13 +1,362 @@
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import tech.novoess.skytable4j.*;
+import tech.novoess.skytable4j.parsing.ParseError;
+import tech.novoess.skytable4j.querying.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 
 public class ConnectionTest {
 
     @Test
-    public void BasicConnect(){
-        Connection connection = new Connection("127.0.0.1",2456);
-        Assertions.assertTrue(connection.IsConnected);
+    public void BasicConnect() throws Exception {
+        try (var server = new FakeSkytable()) {
+            Connection connection = new Connection("127.0.0.1", server.Port());
+            connection.Connect();
+            Assertions.assertTrue(connection.isConnected());
+            Assertions.assertThrows(IllegalStateException.class, connection::Connect);
+            connection.Close();
+            Assertions.assertFalse(connection.isConnected());
+            // A closed connection can be connected again.
+            connection.Connect();
+            Assertions.assertTrue(connection.isConnected());
+            connection.Close();
+        }
+    }
+
+    @Test
+    public void ConcurrentQueriesAreMatchedInOrder() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var connection = new Connection("127.0.0.1", server.Port());
+            connection.Connect();
+
+            var threads = new ArrayList<Thread>();
+            var failures = new ArrayList<Throwable>();
+            for (int t = 0; t < 8; t++) {
+                var prefix = "thread" + t + "-";
+                var thread = new Thread(() -> {
+                    try {
+                        var futures = new ArrayList<CompletableFuture<SkyResult<Element>>>();
+                        for (int i = 0; i < 200; i++)
+                            futures.add(connection.GetAsync(prefix + i));
+                        for (int i = 0; i < 200; i++)
+                            Assertions.assertEquals(prefix + i, futures.get(i).get(10, TimeUnit.SECONDS).Item.AsString());
+                        Assertions.assertEquals(prefix, connection.Get(prefix).Item.AsString());
+                    }
+                    catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (var thread : threads)
+                thread.join();
+
+            Assertions.assertTrue(failures.isEmpty(), failures.toString());
+            Assertions.assertEquals(8 * 201, server.Queries.get());
+            connection.Close();
+        }
+    }
+
+    @Test
+    public void CoalescedQueriesShareAPacket() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var connection = new Connection("127.0.0.1", server.Port());
+            connection.Connect();
+            connection.EnableCoalescing(64, 64 * 1024, Duration.ofMillis(200));
+
+            var futures = new ArrayList<CompletableFuture<SkyResult<Element>>>();
+            for (int i = 0; i < 1000; i++)
+                futures.add(connection.GetAsync("key" + i));
+            for (int i = 0; i < 1000; i++)
+                Assertions.assertEquals("key" + i, futures.get(i).get(10, TimeUnit.SECONDS).Item.AsString());
+            Assertions.assertTrue(server.Packets.get() <= 1000 / 64 + 1);
+
+            // The window sends what is left of a batch that never fills up.
+            Assertions.assertEquals(RespCode.Okay, connection.Set("key", "value").Item.AsResponseCode().Code);
+
+            // Queries written directly go out after the ones gathered before them.
+            var set = connection.SetAsync("key", "value");
+            var get = PreparedQuery.GET.Create();
+            get.Push("key");
+            Assertions.assertEquals("key", connection.RunPipeline(new Pipeline().Add(get)).get(0).Item.AsString());
+            Assertions.assertTrue(set.isDone());
+            connection.DisableCoalescing();
+            connection.Close();
+        }
+
+        try (var server = new FakeSkytable(query -> {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(500));
+            return FakeSkytable.Default(query);
+        })) {
+            var connection = new Connection("127.0.0.1", server.Port());
+            connection.Connect();
+            connection.EnableCoalescing(64, 64 * 1024, Duration.ofMillis(10));
+
+            // A batch that is not answered in time times out with its members and stays in flight.
+            var query = PreparedQuery.GET.Create();
+            query.Push("slow");
+            Assertions.assertEquals(ParseError.Timeout, connection.RunSimpleQueryAsync(query, Duration.ofMillis(100)).get(10, TimeUnit.SECONDS).Error);
+            for (int i = 0; i < 100 && !connection.NeedsResync(); i++)
+                Thread.sleep(10);
+            Assertions.assertTrue(connection.NeedsResync());
+            connection.Close();
+        }
+    }
+
+    @Test
+    public void ClosingAnOpenPipelineGivesTheConnectionBack() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var connection = new Connection("127.0.0.1", server.Port());
+            connection.Connect();
+
+            var get = PreparedQuery.GET.Create();
+            get.Push("key");
+            var pipeline = connection.OpenPipeline(2);
+            pipeline.Push(get);
+            // Other writers wait for the open pipeline, which can be closed from any thread.
+            var other = CompletableFuture.supplyAsync(() -> connection.GetAsync("other")).thenCompose(future -> future);
+            Thread.sleep(100);
+            Assertions.assertFalse(other.isDone());
+            CompletableFuture.runAsync(pipeline::close).get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals("other", other.get(10, TimeUnit.SECONDS).Item.AsString());
+            Assertions.assertTrue(connection.RunPipelineAsync(pipeline).isCompletedExceptionally());
+
+            // Once part of it is on the wire, the connection cannot be used any more.
+            var set = PreparedQuery.SET.Create();
+            set.Push("key");
+            set.Push("v".repeat(1000));
+            try (var large = connection.OpenPipeline(100)) {
+                for (int i = 0; i < 50; i++)
+                    large.Push(set);
+            }
+            for (int i = 0; i < 100 && connection.isConnected(); i++)
+                Thread.sleep(10);
+            Assertions.assertFalse(connection.isConnected());
+        }
+    }
+
+    @Test
+    public void TlsConnectionsResumeTheSession() throws Exception {
+        var certificate = Files.createTempDirectory("skytable4j").resolve("skytable.pem");
+        try (var server = FakeSkytable.Tls(certificate)) {
+            var key = "x".repeat(100 * 1024);
+            for (int i = 0; i < 2; i++) {
+                var connection = new Connection("localhost", (short) server.Port(), certificate.toString());
+                connection.Connect();
+                Assertions.assertEquals("key", connection.Get("key").Item.AsString());
+                // Spans several TLS records both ways.
+                Assertions.assertEquals(key, connection.Get(key).Item.AsString());
+                connection.Close();
+            }
+
+            Assertions.assertEquals(2, server.Sessions.size());
+            Assertions.assertFalse(server.Sessions.get(0).isEmpty());
+            Assertions.assertEquals(server.Sessions.get(0), server.Sessions.get(1));
+
+            // Trusting the certificate is not enough, it has to name the host.
+            var address = new Connection("127.0.0.1", (short) server.Port(), certificate.toString());
+            Assertions.assertThrows(IOException.class, address::Connect);
+        }
+    }
+
+    @Test
+    public void ConnectingDoesNotHoldTheMonitor() throws Exception {
+        var certificate = Files.createTempDirectory("skytable4j").resolve("skytable.pem");
+        FakeSkytable.Tls(certificate).close();
+        // Accepts the connection but never answers the client hello, so Connect waits in the handshake.
+        var stalled = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        try {
+            var connection = new Connection("localhost", (short) stalled.getLocalPort(), certificate.toString());
+            // The executor the pool opens its connections on; a monitor held there would pin a virtual thread.
+            var executor = RequestExecutors.PerRequest();
+            try {
+                var connecting = CompletableFuture.runAsync(() -> {
+                    try {
+                        connection.Connect();
+                    }
+                    catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+                Thread.sleep(200);
+
+                // Had Connect taken the monitor, this would wait until the handshake gave up.
+                var entered = CompletableFuture.runAsync(() -> {
+                    synchronized (connection) {
+                        Assertions.assertFalse(connecting.isDone());
+                    }
+                });
+                entered.get(5, TimeUnit.SECONDS);
+
+                stalled.close();
+                Assertions.assertThrows(ExecutionException.class, () -> connecting.get(10, TimeUnit.SECONDS));
+            }
+            finally {
+                executor.shutdown();
+            }
+        }
+        finally {
+            stalled.close();
+        }
+    }
+
+    @Test
+    public void ConnectOverAUnixSocket() throws Exception {
+        var path = Files.createTempDirectory("skytable4j").resolve("skytable.sock");
+        try (var server = FakeSkytable.Unix(path)) {
+            var connection = new ConnectionBuilder().UseUnixSocket(path).Build();
+
+            Assertions.assertTrue(connection.isConnected());
+            Assertions.assertEquals("key", connection.Get("key").Item.AsString());
+            Assertions.assertEquals(1, server.Connections.get());
+            Assertions.assertEquals(RespCode.Okay, connection.Set("key", "value").Item.AsResponseCode().Code);
+            connection.Close();
+        }
+        finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void BuildersKeepTheirOwnSettings() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var tuned = new ConnectionBuilder()
+                    .setPort((short) server.Port())
+                    .setNoDelay(false)
+                    .setReceiveBufferSize(64 * 1024)
+                    .setReadBufferSize(512)
+                    .setTimeout(Duration.ofSeconds(5))
+                    .BuildConfig();
+            var plain = new ConnectionBuilder().setPort((short) server.Port()).BuildConfig();
+
+            Assertions.assertFalse(tuned.NoDelay);
+            Assertions.assertTrue(plain.NoDelay);
+            Assertions.assertNull(plain.Timeout);
+
+            var first = new Connection(tuned);
+            var second = new Connection(plain);
+            first.Connect();
+            second.Connect();
+            Assertions.assertEquals(Duration.ofSeconds(5), first.getTimeout());
+            Assertions.assertNull(second.getTimeout());
+            Assertions.assertEquals("key", first.Get("key").Item.AsString());
+            Assertions.assertEquals("key", second.Get("key").Item.AsString());
+            first.Close();
+            second.Close();
+        }
+    }
+
+    @Test
+    public void ResponsesLargerThanTheMaxFrameSizeCloseTheConnection() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var connection = new ConnectionBuilder()
+                    .setPort((short) server.Port())
+                    .setMaxFrameSize(1024)
+                    .Build();
+            Assertions.assertEquals("key", connection.Get("key").Item.AsString());
+
+            var pending = connection.GetAsync("k".repeat(4096));
+            Assertions.assertThrows(Exception.class, () -> pending.get(10, TimeUnit.SECONDS));
+            Assertions.assertFalse(connection.isConnected());
+        }
+    }
+
+    @Test
+    public void SlowResponsesTimeOutAndAreDropped() throws Exception {
+        try (var server = new FakeSkytable(query -> {
+            if (query.get(1).equals("slow"))
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(500));
+            return FakeSkytable.Default(query);
+        })) {
+            var connection = new Connection("127.0.0.1", server.Port());
+            connection.Connect();
+            connection.setTimeout(Duration.ofMillis(100));
+            Assertions.assertEquals(ParseError.Timeout, connection.Get("slow").Error);
+            Assertions.assertTrue(connection.NeedsResync());
+
+            // The late response is dropped, the next query gets its own.
+            connection.setTimeout(null);
+            Assertions.assertEquals("key", connection.Get("key").Item.AsString());
+            Assertions.assertFalse(connection.NeedsResync());
+
+            var query = PreparedQuery.GET.Create();
+            query.Push("slow");
+            connection.RunSimpleQueryAsync(query, Duration.ofSeconds(10)).cancel(false);
+            Assertions.assertTrue(connection.NeedsResync());
+            Assertions.assertEquals("slow", connection.RunSimpleQuery(query, Duration.ofSeconds(10)).Item.AsString());
+            Assertions.assertTrue(connection.isConnected());
+            connection.Close();
+        }
+    }
+
+    @Test
+    public void InFlightQueriesFailWhenTheConnectionDrops() throws Exception {
+        try (var server = new FakeSkytable(query -> { throw new IllegalStateException("never answers"); })) {
+            var connection = new Connection("127.0.0.1", server.Port());
+            connection.Connect();
+            var pending = connection.SetAsync("key", "value");
+            server.DropConnections();
+            Assertions.assertThrows(Exception.class, () -> pending.get(10, TimeUnit.SECONDS));
+            Assertions.assertFalse(connection.isConnected());
+        }
+    }
+
+    @Test
+    public void UseUpdatesEntity() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var connection = new Connection("127.0.0.1", server.Port());
+            connection.Connect();
+            Assertions.assertEquals(RespCode.Okay, connection.Use("space", "table").Item.AsResponseCode().Code);
+            Assertions.assertEquals("space:table", connection.Entity);
+            // Already there, the server is not asked again.
+            var queries = server.Queries.get();
+            Assertions.assertEquals(RespCode.Okay, connection.Use("space", "table").Item.AsResponseCode().Code);
+            Assertions.assertEquals(queries, server.Queries.get());
+
+            // A USE that has been sent but not answered yet is not sent again.
+            var first = connection.UseAsync("other", "table");
+            var second = connection.UseAsync("other", "table");
+            Assertions.assertEquals(RespCode.Okay, first.get(10, TimeUnit.SECONDS).Item.AsResponseCode().Code);
+            Assertions.assertEquals(RespCode.Okay, second.get(10, TimeUnit.SECONDS).Item.AsResponseCode().Code);
+            Assertions.assertEquals(queries + 1, server.Queries.get());
+            Assertions.assertEquals("other:table", connection.Entity);
+            connection.Close();
+        }
+    }
+
+    @Test
+    public void ReconnectingStartsOnTheDefaultEntity() throws Exception {
+        try (var server = new FakeSkytable()) {
+            var connection = new Connection("127.0.0.1", server.Port());
+            connection.Connect();
+            Assertions.assertEquals(RespCode.Okay, connection.Use("space", "table").Item.AsResponseCode().Code);
+            server.DropConnections();
+            for (int i = 0; i < 100 && connection.isConnected(); i++)
+                Thread.sleep(10);
+
+            // The new session is on the default entity, so switching back has to be sent again.
+            connection.Connect();
+            Assertions.assertEquals("default:default", connection.Entity);
+            var queries = server.Queries.get();
+            Assertions.assertEquals(RespCode.Okay, connection.Use("space", "table").Item.AsResponseCode().Code);
+            Assertions.assertEquals(queries + 1, server.Queries.get());
+            Assertions.assertEquals("space:table", connection.Entity);
+            connection.Close();
+        }
     }
 }
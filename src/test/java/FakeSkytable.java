@@ -0,0 +1,206 @@
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.net.InetAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * <summary>
+ * A loopback server that speaks just enough Skyhash 1.0 for the connection tests. Every query is answered by the
+ * handler with one encoded element; by default GET echoes its key back and everything else is answered with Okay.
+ * </summary>
+ */
+public class FakeSkytable implements AutoCloseable {
+
+    public static final String OKAY = "!1\n0\n";
+
+    public final AtomicInteger Connections = new AtomicInteger();
+    public final AtomicInteger Queries = new AtomicInteger();
+    public final AtomicInteger Packets = new AtomicInteger();
+    public final List<List<String>> Received = new CopyOnWriteArrayList<>();
+    // The TLS session id of every connection, if the server uses TLS.
+    public final List<String> Sessions = new CopyOnWriteArrayList<>();
+
+    private final Closeable _server;
+    private final IAcceptor _acceptor;
+    private final int _port;
+    private final Function<List<String>, String> _handler;
+    private final List<Closeable> _sockets = new CopyOnWriteArrayList<>();
+
+    public FakeSkytable() throws IOException {
+        this(FakeSkytable::Default);
+    }
+
+    public FakeSkytable(Function<List<String>, String> handler) throws IOException {
+        this(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()), handler);
+    }
+
+    public FakeSkytable(ServerSocket server, Function<List<String>, String> handler) {
+        this(server, server::accept, server.getLocalPort(), handler);
+    }
+
+    private FakeSkytable(Closeable server, IAcceptor acceptor, int port, Function<List<String>, String> handler) {
+        _server = server;
+        _acceptor = acceptor;
+        _port = port;
+        _handler = handler;
+        var thread = new Thread(this::Accept, "fake-skytable");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int Port() {
+        return _port;
+    }
+
+    /// Starts a server listening on a Unix domain socket at the given path.
+    public static FakeSkytable Unix(Path path) throws IOException {
+        var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(path));
+        return new FakeSkytable(server, server::accept, -1, FakeSkytable::Default);
+    }
+
+    /// Starts a TLS 1.2 server with a new self-signed certificate, which is written to the given file as PEM.
+    public static FakeSkytable Tls(Path certificate) throws Exception {
+        var keystore = certificate.resolveSibling("fake-skytable.p12");
+        Files.deleteIfExists(keystore);
+        Keytool("-genkeypair", "-alias", "skytable", "-keyalg", "EC", "-dname", "CN=localhost",
+                "-ext", "SAN=dns:localhost", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keystore.toString(), "-storepass", "password");
+        Keytool("-exportcert", "-rfc", "-alias", "skytable", "-keystore", keystore.toString(), "-storepass", "password",
+                "-file", certificate.toString());
+
+        var keys = KeyStore.getInstance("PKCS12");
+        try (var stream = Files.newInputStream(keystore)) {
+            keys.load(stream, "password".toCharArray());
+        }
+        var managers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        managers.init(keys, "password".toCharArray());
+        var context = SSLContext.getInstance("TLS");
+        context.init(managers.getKeyManagers(), null, null);
+
+        // TLS 1.2 resumes by session id, which makes resumption visible to the tests.
+        var server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        server.setEnabledProtocols(new String[] { "TLSv1.2" });
+        return new FakeSkytable(server, FakeSkytable::Default);
+    }
+
+    public static String Default(List<String> query) {
+        if (query.get(0).equals("get"))
+            return "+" + query.get(1).length() + "\n" + query.get(1) + "\n";
+        if (query.get(0).equals("heya"))
+            return "+4\nHEY!\n";
+        return OKAY;
+    }
+
+    /// Drops every open connection, as if the server went away.
+    public void DropConnections() throws IOException {
+        for (var socket : _sockets)
+            socket.close();
+        _sockets.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _server.close();
+        DropConnections();
+    }
+
+    private void Accept() {
+        try {
+            while (true) {
+                var socket = _acceptor.Accept();
+                _sockets.add(socket);
+                Connections.incrementAndGet();
+                var worker = new Thread(() -> Serve(socket), "fake-skytable-connection");
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+        catch (IOException e) {
+            // Closed.
+        }
+    }
+
+    private void Serve(Closeable socket) {
+        try (socket) {
+            if (socket instanceof SSLSocket tls)
+                Sessions.add(HexFormat.of().formatHex(tls.getSession().getId()));
+            var in = new BufferedInputStream(socket instanceof Socket s ? s.getInputStream() : Channels.newInputStream((SocketChannel) socket));
+            var out = socket instanceof Socket s ? s.getOutputStream() : Channels.newOutputStream((SocketChannel) socket);
+            while (true) {
+                var header = ReadLine(in);
+                if (header == null)
+                    return;
+
+                var count = Integer.parseInt(header.substring(1));
+                Packets.incrementAndGet();
+                var response = new StringBuilder("*").append(count).append('\n');
+                for (int i = 0; i < count; i++) {
+                    var arguments = Integer.parseInt(ReadLine(in).substring(1));
+                    var query = new ArrayList<String>(arguments);
+                    for (int j = 0; j < arguments; j++) {
+                        var length = Integer.parseInt(ReadLine(in));
+                        query.add(new String(in.readNBytes(length), StandardCharsets.UTF_8));
+                        in.read();
+                    }
+                    Received.add(query);
+                    Queries.incrementAndGet();
+                    response.append(_handler.apply(query));
+                }
+                out.write(response.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // Dropped.
+        }
+    }
+
+    private interface IAcceptor {
+        Closeable Accept() throws IOException;
+    }
+
+    private static void Keytool(String... arguments) throws Exception {
+        var command = new ArrayList<String>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "keytool").toString());
+        command.addAll(List.of(arguments));
+        var process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (process.waitFor() != 0)
+            throw new IOException("keytool failed: " + output);
+    }
+
+    private static String ReadLine(InputStream in) throws IOException {
+        var line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                return null;
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
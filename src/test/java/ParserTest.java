@@ -0,0 +1,240 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tech.novoess.skytable4j.parsing.*;
+import tech.novoess.skytable4j.querying.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+
+public class ParserTest {
+
+    private static final String NESTED_ARRAY = "*1\n&3\n+1\na\n&2\n:1\n5\n+2\nbc\n_2\n+1\nx\n+1\ny\n";
+
+    @Test
+    public void ParseString(){
+        var parser = new Parser();
+        Feed(parser, "*1\n+5\nhello\n");
+        var result = parser.Parse();
+        Assertions.assertTrue(result.IsOk);
+        Assertions.assertEquals(ElementType.String, result.Item.Type);
+        Assertions.assertEquals("hello", result.Item.AsString());
+        Assertions.assertEquals(0, parser.Buffered());
+    }
+
+    @Test
+    public void ResumeByteByByte(){
+        var parser = new Parser();
+        var bytes = NESTED_ARRAY.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length - 1; i++) {
+            parser.Feed(bytes, i, 1);
+            Assertions.assertEquals(ParseError.NotEnough, parser.Parse().Error);
+        }
+
+        parser.Feed(bytes, bytes.length - 1, 1);
+        var result = parser.Parse();
+        Assertions.assertTrue(result.IsOk);
+        Assertions.assertEquals(ElementType.Array, result.Item.Type);
+
+        var elements = (List<?>) result.Item.getObject();
+        Assertions.assertEquals(3, elements.size());
+        Assertions.assertEquals(ElementType.Array, ((Element) elements.get(1)).Type);
+        Assertions.assertEquals(List.of("x", "y"), ((Element) elements.get(2)).getObject());
+    }
+
+    @Test
+    public void TypedArrayWithNull(){
+        var parser = new Parser();
+        Feed(parser, "*1\n@+3\n2\nab\n\0" + "1\nc\n");
+        var result = parser.Parse();
+        Assertions.assertTrue(result.IsOk);
+        Assertions.assertEquals(ElementType.StringArray, result.Item.Type);
+        Assertions.assertEquals(java.util.Arrays.asList("ab", null, "c"), result.Item.AsStringArray());
+    }
+
+    @Test
+    public void TypedBinaryArray(){
+        var parser = new Parser();
+        Feed(parser, "*1\n@?2\n2\nab\n\0");
+        var result = parser.Parse();
+        Assertions.assertTrue(result.IsOk);
+        Assertions.assertEquals(ElementType.BinaryArray, result.Item.Type);
+        var members = result.Item.AsBinaryArray();
+        Assertions.assertEquals("ab", members.get(0).ToUtf8String());
+        Assertions.assertNull(members.get(1));
+        Assertions.assertThrows(IllegalStateException.class, result.Item::AsStringArray);
+    }
+
+    @Test
+    public void ReadFromChannelIntoDirectBuffer() throws Exception {
+        var parser = new Parser(16, true);
+        var value = "x".repeat(10_000);
+        var response = "*1\n?" + value.length() + "\n" + value + "\n";
+        var channel = Channels.newChannel(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+
+        var result = parser.Parse();
+        while (!result.IsOk) {
+            Assertions.assertTrue(parser.ReadFrom(channel) > 0);
+            result = parser.Parse();
+        }
+
+        Assertions.assertEquals(ElementType.BinaryString, result.Item.Type);
+        Assertions.assertArrayEquals(value.getBytes(StandardCharsets.UTF_8), result.Item.AsBytes().ToArray());
+    }
+
+    @Test
+    public void ParsePipelinedResponse(){
+        var parser = new Parser();
+        var bytes = "*3\n!1\n0\n+5\nhello\n&1\n:1\n7\n".getBytes(StandardCharsets.UTF_8);
+        parser.Feed(bytes, 0, 10);
+        Assertions.assertEquals(ParseError.NotEnough, parser.ParsePipeline().Error);
+        parser.Feed(bytes, 10, bytes.length - 10);
+
+        var result = parser.ParsePipeline();
+        Assertions.assertTrue(result.IsOk);
+        Assertions.assertEquals(3, result.Item.size());
+        Assertions.assertEquals(ElementType.RespCode, result.Item.get(0).Type);
+        Assertions.assertEquals("hello", result.Item.get(1).AsString());
+        Assertions.assertEquals(ElementType.Array, result.Item.get(2).Type);
+    }
+
+    @Test
+    public void LargeValuesAreViewedInPlace(){
+        var parser = new Parser();
+        var value = "x".repeat(5_000);
+        Feed(parser, "*1\n+" + value.length() + "\n" + value + "\n");
+        var first = parser.Parse();
+
+        // The next response must not overwrite the bytes the first one still points into.
+        Feed(parser, "*1\n+" + value.length() + "\n" + "y".repeat(5_000) + "\n");
+        var second = parser.Parse();
+
+        Assertions.assertEquals(value, first.Item.AsString());
+        Assertions.assertEquals('y', (char) second.Item.AsBytes().Get(0));
+        Assertions.assertEquals(5_000, first.Item.AsBytes().AsByteBuffer().remaining());
+    }
+
+    @Test
+    public void StreamLargeTypedArrayWithBoundedBuffer() throws Exception {
+        var count = 100_000;
+        var response = new StringBuilder("*1\n@+" + count + "\n");
+        for (int i = 0; i < count; i++)
+            response.append("5\nkey").append(i % 10).append(i % 10).append('\n');
+
+        var parser = new Parser();
+        var channel = Channels.newChannel(new ByteArrayInputStream(response.toString().getBytes(StandardCharsets.UTF_8)));
+        var seen = new int[1];
+        var visitor = new IElementVisitor() {
+            public void OnArrayStart(ArrayType type, int size) { Assertions.assertEquals(count, size); }
+            public void OnString(ByteSlice value) { Assertions.assertEquals(5, value.Length()); seen[0]++; }
+            public void OnU64(long value) { }
+            public void OnBinary(ByteSlice value) { }
+            public void OnRespCode(ResponseCode code) { }
+            public void OnNull() { }
+            public void OnArrayEnd() { Assertions.assertEquals(count, seen[0]); }
+        };
+
+        var result = parser.Parse(visitor);
+        while (!result.IsOk) {
+            Assertions.assertTrue(parser.ReadFrom(channel) > 0);
+            Assertions.assertTrue(parser.Buffered() <= 4096);
+            result = parser.Parse(visitor);
+        }
+
+        Assertions.assertEquals(1, (int) result.Item);
+        Assertions.assertEquals(count, seen[0]);
+    }
+
+    @Test
+    public void ResponseCodesAreShared(){
+        var parser = new Parser();
+        Feed(parser, "*1\n!1\n1\n");
+        var first = parser.Parse().Item;
+        Feed(parser, "*1\n!1\n1\n");
+        var second = parser.Parse().Item;
+
+        Assertions.assertSame(first, second);
+        Assertions.assertSame(ResponseCode.Of(RespCode.NotFound), first.AsResponseCode());
+    }
+
+    @Test
+    public void ResponseCodeFastPath(){
+        var parser = new Parser();
+        Feed(parser, "*1\n!1\n0\n*1\n!1\n0\n*1\n!1\n2\n*1\n!1\n1\n+");
+        var first = parser.Parse();
+        Assertions.assertSame(first, parser.Parse());
+        Assertions.assertEquals(RespCode.Okay, first.Item.AsResponseCode().Code);
+        Assertions.assertEquals(RespCode.OverwriteError, parser.Parse().Item.AsResponseCode().Code);
+
+        // Followed by something that cannot start a response, left to the general parser to reject.
+        Assertions.assertEquals(ParseError.UnexpectedByte, parser.Parse().Error);
+    }
+
+    @Test
+    public void UnsignedIntInPrimitiveSlot(){
+        var parser = new Parser();
+        Feed(parser, "*1\n:20\n18446744073709551615\n");
+        var result = parser.Parse();
+        Assertions.assertEquals(-1L, result.Item.AsUnsignedInt());
+        Assertions.assertEquals("18446744073709551615", Long.toUnsignedString(result.Item.AsUnsignedInt()));
+    }
+
+    @Test
+    public void ParseNumbersOfEveryLength(){
+        var value = "";
+        for (int digits = 1; digits <= 20; digits++)
+        {
+            value += (char) ('0' + digits % 10);
+            var parser = new Parser();
+            Feed(parser, "*1\n:" + value.length() + "\n" + value + "\n");
+            Assertions.assertEquals(value, Long.toUnsignedString(parser.Parse().Item.AsUnsignedInt()));
+
+            // Right at the end of the buffer, where a whole word cannot be read past the digits.
+            parser = new Parser(value.length() + 8);
+            Feed(parser, "*1\n:" + value.length() + "\n" + value + "\n");
+            Assertions.assertEquals(value, Long.toUnsignedString(parser.Parse().Item.AsUnsignedInt()));
+
+            for (int i = 0; i < digits; i++)
+            {
+                for (var bad : new char[] { '/', ':', 'a', ' ' })
+                {
+                    var invalid = value.substring(0, i) + bad + value.substring(i + 1);
+                    parser = new Parser();
+                    Feed(parser, "*1\n:" + invalid.length() + "\n" + invalid + "\n");
+                    Assertions.assertEquals(ParseError.DataTypeParseError, parser.Parse().Error);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void ParseSizesOfFlatArrayMembers(){
+        var response = new StringBuilder("*1\n_300\n");
+        for (int i = 0; i < 300; i++)
+        {
+            var member = "x".repeat(i);
+            response.append("+").append(member.length()).append("\n").append(member).append("\n");
+        }
+        var parser = new Parser();
+        Feed(parser, response.toString());
+        var members = parser.Parse().Item.AsStringArray();
+        Assertions.assertEquals(300, members.size());
+        for (int i = 0; i < 300; i++)
+            Assertions.assertEquals(i, members.get(i).length());
+    }
+
+    @Test
+    public void BadByteDiscardsBuffer(){
+        var parser = new Parser();
+        Feed(parser, "*1\n+5\nhelloX");
+        Assertions.assertEquals(ParseError.UnexpectedByte, parser.Parse().Error);
+        Assertions.assertEquals(0, parser.Buffered());
+    }
+
+    private static void Feed(Parser parser, String response) {
+        var bytes = response.getBytes(StandardCharsets.UTF_8);
+        parser.Feed(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,106 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tech.novoess.skytable4j.querying.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+
+public class QueryTest {
+
+    @Test
+    public void EncodeQuery() throws IOException {
+        var query = new Query();
+        query.Push("set");
+        query.Push("key");
+        query.Push("välue");
+        Assertions.assertEquals("*1\n~3\n3\nset\n3\nkey\n6\nvälue\n", Written(query));
+    }
+
+    @Test
+    public void ResetReusesQuery() throws IOException {
+        var query = new Query(4);
+        for (int i = 0; i < 12; i++)
+            query.Push("argument" + i);
+        Assertions.assertEquals(12, query.getArgumentCount());
+        Assertions.assertTrue(Written(query).startsWith("*1\n~12\n9\nargument0\n"));
+
+        query.Reset();
+        query.Push("get");
+        query.Push("x");
+        Assertions.assertEquals("*1\n~2\n3\nget\n1\nx\n", Written(query));
+    }
+
+    @Test
+    public void PreparedQueryStartsWithAction() throws IOException {
+        var query = PreparedQuery.SET.Create();
+        query.Push("key");
+        query.Push("value");
+        Assertions.assertEquals("*1\n~3\n3\nset\n3\nkey\n5\nvalue\n", Written(query));
+
+        PreparedQuery.GET.Start(query).Push("key");
+        Assertions.assertEquals(2, query.getArgumentCount());
+        Assertions.assertEquals("*1\n~2\n3\nget\n3\nkey\n", Written(query));
+
+        var create = new PreparedQuery("create", "keyspace");
+        Assertions.assertEquals("*1\n~2\n6\ncreate\n8\nkeyspace\n", Written(create.Create()));
+    }
+
+    @Test
+    public void PipelineTakesDatagroup() throws IOException {
+        var get = new Query();
+        get.Push("get");
+        get.Push("x");
+        var pipeline = new Pipeline().Add(get).Add(get);
+        var stream = new ByteArrayOutputStream();
+        pipeline.WriteTo(stream);
+        Assertions.assertEquals("*2\n~2\n3\nget\n1\nx\n~2\n3\nget\n1\nx\n", stream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void LargePipelineIsChunked() throws IOException {
+        var query = new Query();
+        query.Push("set");
+        query.Push("k");
+        query.Push("v".repeat(1000));
+        var datagroup = Written(query).substring(3);
+
+        var pipeline = new Pipeline();
+        for (int i = 0; i < 100; i++)
+            pipeline.Push(query);
+        var stream = new ByteArrayOutputStream();
+        pipeline.WriteTo(stream);
+        Assertions.assertEquals("*100\n" + datagroup.repeat(100), stream.toString(StandardCharsets.UTF_8));
+        pipeline.Reset();
+        Assertions.assertEquals(0, pipeline.getCount());
+    }
+
+    @Test
+    public void StreamingPipelineSendsFullChunks() throws IOException {
+        var query = new Query();
+        query.Push("set");
+        query.Push("k");
+        query.Push("v".repeat(1000));
+        var datagroup = Written(query).substring(3);
+
+        var stream = new ByteArrayOutputStream();
+        var pipeline = new Pipeline(100, stream);
+        for (int i = 0; i < 50; i++)
+            pipeline.Push(query);
+        // Chunks that filled up are on their way already.
+        Assertions.assertTrue(stream.size() > 16 * 1024);
+
+        for (int i = 0; i < 50; i++)
+            pipeline.Push(query);
+        Assertions.assertThrows(IllegalStateException.class, () -> pipeline.Push(query));
+        pipeline.WriteTo(stream);
+        Assertions.assertEquals("*100\n" + datagroup.repeat(100), stream.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String Written(Query query) throws IOException {
+        var stream = new ByteArrayOutputStream();
+        query.WriteTo(stream);
+        return stream.toString(StandardCharsets.UTF_8);
+    }
+}
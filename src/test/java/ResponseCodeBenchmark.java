@@ -0,0 +1,65 @@
+import tech.novoess.skytable4j.parsing.IElementVisitor;
+import tech.novoess.skytable4j.parsing.Parser;
+import tech.novoess.skytable4j.querying.ArrayType;
+import tech.novoess.skytable4j.querying.ByteSlice;
+import tech.novoess.skytable4j.querying.ResponseCode;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <summary>
+ * Compares parsing `*1\n!1\n0\n` through the response code fast path with the general parser.
+ * Not a test; run it with the test classpath, e.g. `java -cp target/classes:target/test-classes ResponseCodeBenchmark`.
+ * </summary>
+ */
+public class ResponseCodeBenchmark
+{
+    private static final byte[] OKAY = "*1\n!1\n0\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int ITERATIONS = 10_000_000;
+
+    public static void main(String[] args)
+    {
+        for (int round = 0; round < 5; round++)
+        {
+            System.out.printf("fast path: %6.1f ns/op    general parser: %6.1f ns/op%n", FastPath(), GeneralParser());
+        }
+    }
+
+    private static double FastPath()
+    {
+        var parser = new Parser();
+        var start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            parser.Feed(OKAY, 0, OKAY.length);
+            if (!parser.Parse().IsOk)
+                throw new IllegalStateException();
+        }
+        return (System.nanoTime() - start) / (double) ITERATIONS;
+    }
+
+    private static double GeneralParser()
+    {
+        var parser = new Parser();
+        var visitor = new NullVisitor();
+        var start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            parser.Feed(OKAY, 0, OKAY.length);
+            if (!parser.Parse(visitor).IsOk)
+                throw new IllegalStateException();
+        }
+        return (System.nanoTime() - start) / (double) ITERATIONS;
+    }
+
+    private static final class NullVisitor implements IElementVisitor
+    {
+        @Override public void OnArrayStart(ArrayType type, int size) { }
+        @Override public void OnString(ByteSlice value) { }
+        @Override public void OnU64(long value) { }
+        @Override public void OnBinary(ByteSlice value) { }
+        @Override public void OnRespCode(ResponseCode code) { }
+        @Override public void OnNull() { }
+        @Override public void OnArrayEnd() { }
+    }
+}
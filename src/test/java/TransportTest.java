@@ -0,0 +1,183 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import tech.novoess.skytable4j.parsing.Parser;
+import tech.novoess.skytable4j.querying.*;
+import tech.novoess.skytable4j.transport.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+
+
+public class TransportTest {
+
+    @Test
+    public void SendAndReceive() throws Exception {
+        try (var server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            var request = "*1\n~2\n3\nget\n1\nx\n";
+            var received = CompletableFuture.supplyAsync(() -> Serve(server, request.length(), "*1\n+5\nhello\n"));
+
+            var parser = new Parser(64, true);
+            var response = new CompletableFuture<Element>();
+            var transport = SocketTransport.Connect(server.getLocalSocketAddress(), EventLoop.Default(), new ITransportListener() {
+                @Override
+                public void OnReadable(ReadableByteChannel channel) throws IOException {
+                    int read;
+                    while ((read = parser.ReadFrom(channel)) > 0) {
+                        var result = parser.Parse();
+                        if (result.IsOk)
+                            response.complete(result.Item);
+                    }
+                    if (read < 0)
+                        throw new EOFException();
+                }
+
+                @Override
+                public void OnClosed(Throwable cause) {
+                    response.completeExceptionally(cause != null ? cause : new IOException("closed"));
+                }
+            });
+
+            var query = PreparedQuery.GET.Create();
+            query.Push("x");
+            query.WriteTo(transport.getOutputStream());
+
+            Assertions.assertEquals("hello", response.get(10, TimeUnit.SECONDS).AsString());
+            Assertions.assertEquals(request, received.get(10, TimeUnit.SECONDS));
+            transport.Close();
+            Assertions.assertFalse(transport.IsOpen());
+        }
+    }
+
+    @Test
+    public void LargeSendIsWrittenByTheLoop() throws Exception {
+        try (var server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            var payload = "x".repeat(3 * 1024 * 1024);
+            var received = CompletableFuture.supplyAsync(() -> Serve(server, payload.length(), ""));
+
+            var closed = new CompletableFuture<Throwable>();
+            var transport = SocketTransport.Connect(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()), EventLoop.Default(), new ITransportListener() {
+                @Override
+                public void OnReadable(ReadableByteChannel channel) { }
+
+                @Override
+                public void OnClosed(Throwable cause) {
+                    closed.complete(cause);
+                }
+            });
+
+            // More than the socket buffers take at once; the rest is left to the loop.
+            var bytes = payload.getBytes(StandardCharsets.US_ASCII);
+            for (int i = 0; i < bytes.length; i += 64 * 1024)
+                transport.Send(bytes, i, 64 * 1024);
+
+            Assertions.assertEquals(payload, received.get(10, TimeUnit.SECONDS));
+            transport.Close();
+            Assertions.assertNull(closed.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void ConnectTimesOutWhenTheHandshakeStalls() throws Exception {
+        // Accepts the connection but never answers the client hello.
+        try (var server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            var tls = new TlsContext(SSLContext.getDefault());
+            var address = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+            Assertions.assertThrows(SocketTimeoutException.class, () -> SocketTransport.Connect(address, tls, Duration.ofMillis(200), EventLoop.Default(), new ITransportListener() {
+                @Override
+                public void OnReadable(ReadableByteChannel channel) { }
+
+                @Override
+                public void OnClosed(Throwable cause) { }
+            }));
+        }
+    }
+
+    @Test
+    public void SendsGiveUpWhenTheServerStopsReading() throws Exception {
+        // Accepts the connection but never reads from it.
+        try (var server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            var closed = new CompletableFuture<Throwable>();
+            var transport = SocketTransport.Connect(server.getLocalSocketAddress(), EventLoop.Default(), new ITransportListener() {
+                @Override
+                public void OnReadable(ReadableByteChannel channel) { }
+
+                @Override
+                public void OnClosed(Throwable cause) {
+                    closed.complete(cause);
+                }
+            });
+            transport.setSendTimeout(Duration.ofMillis(200));
+
+            var bytes = new byte[64 * 1024];
+            Assertions.assertThrows(SocketTimeoutException.class, () -> {
+                while (true)
+                    transport.Send(bytes, 0, bytes.length);
+            });
+            Assertions.assertFalse(transport.IsOpen());
+            Assertions.assertTrue(closed.get(10, TimeUnit.SECONDS) instanceof SocketTimeoutException);
+        }
+    }
+
+    @Test
+    public void FailingHandlersDoNotStopTheLoop() throws Exception {
+        var loop = new EventLoop("transport-test");
+        try (var server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            var received = CompletableFuture.supplyAsync(() -> Serve(server, 1, "*1\n+5\nhello\n"));
+            var closed = new CompletableFuture<Throwable>();
+            var transport = SocketTransport.Connect(server.getLocalSocketAddress(), loop, new ITransportListener() {
+                @Override
+                public void OnReadable(ReadableByteChannel channel) {
+                    throw new IllegalStateException("read");
+                }
+
+                @Override
+                public void OnClosed(Throwable cause) {
+                    closed.complete(cause);
+                    throw new IllegalStateException("closed");
+                }
+            });
+            transport.getOutputStream().write('x');
+            received.get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals("read", closed.get(10, TimeUnit.SECONDS).getMessage());
+
+            loop.Execute(() -> { throw new IllegalStateException("task"); });
+            var ran = new CompletableFuture<Boolean>();
+            loop.Execute(() -> ran.complete(true));
+            Assertions.assertTrue(ran.get(10, TimeUnit.SECONDS));
+        }
+        finally {
+            loop.Close();
+        }
+    }
+
+    private static String Serve(ServerSocket server, int expected, String reply) {
+        try (var socket = server.accept()) {
+            var in = socket.getInputStream();
+            var bytes = new ByteArrayOutputStream();
+            var buffer = new byte[8192];
+            while (bytes.size() < expected) {
+                var read = in.read(buffer);
+                if (read < 0)
+                    break;
+                bytes.write(buffer, 0, read);
+            }
+            socket.getOutputStream().write(reply.getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            return bytes.toString(StandardCharsets.US_ASCII);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}